@@ -8,20 +8,67 @@
  * Language: Java
  */
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.StringTokenizer;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.ArrayList;
 import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 
 
@@ -35,505 +82,7832 @@ class GraphException extends RuntimeException
     }
 }
 
-// Represents a vertex in the graph.
-class Vertex implements Comparable<Vertex>
+// Names of the vertices, each mapped to its dense id (its row in the link
+// store), with no object per vertex. The UTF-8 bytes of every name sit back
+// to back in one arena, name id spanning start[ id ] to start[ id + 1 ], and
+// lookups go through an open addressing table of id + 1 (0 is empty) kept at
+// most half full. Names are never removed, so ids stay put.
+class SymbolTable
 {
-    public String     name;   // Vertex name
-    public List<Vertex> adj;    // Adjacent vertices
-    public List<Double> weight;
-    public Vertex     prev;   // Previous vertex on shortest path
-    public double        dist;   // Distance of path
+    private byte[] arena = new byte[ 256 ];
+    private int[]  start = new int[ 17 ];
+    private int[]  table = new int[ 32 ];
+    private int size;
 
-    public Vertex( String nm)
-      { name = nm; adj = new LinkedList<Vertex>( ); weight = new LinkedList<Double>() ; reset( ); }
+    public int size( )
+      { return size; }
 
-    public void reset( )
-      { dist = Graph.INFINITY; prev = null; }    
-
-    @Override
-    public int compareTo(Vertex other) {
-        return Double.compare(dist, other.dist);
+    /**
+     * Return the id of name, or -1 if it is not in the table.
+     */
+    public int find( String name )
+    {
+        byte[] bytes = ascii( name ) ? null : name.getBytes( StandardCharsets.UTF_8 );
+        int mask = table.length - 1;
+        for( int slot = hash( name, bytes ) & mask; table[ slot ] != 0; slot = ( slot + 1 ) & mask )
+            if( matches( table[ slot ] - 1, name, bytes ) )
+                return table[ slot ] - 1;
+        return -1;
     }
-      
-}
-
-// Graph class: evaluate shortest paths of weighted graoh.
-//
-// CONSTRUCTION: with no parameters.
-//
-// ******************PUBLIC OPERATIONS**********************
-// void addUndirectedEdge( String v, String w, Double weight)
-//                              --> Add additional edge
-// void addEdge( String v, String w, Double weight )
-//                              --> Add additional edge, directed
-// void edgeUp(String v,String w) --> Add created edge to 'Up' list
-// void edgeDown(String v,String w) --> Add created edge to 'Down' list
-// void deleteEdge(String v,String w) --> Removes an edge from the starting node
-// void vertexUp(vertex v) --> Add created vertex to 'Up' list
-// void vertexDown(vertex v) --> Add created vertex to 'Down' list
-// void printPath( String w )   --> Print path after alg is run
-// void print()   --> Prints all nodes and their weighted edges 
-// void reachable() --> prints all nodes and their reachable descendants provided all are up
-// void ospf(String s) --> Open Shortest Path First protocol 
-
-public class Graph
-{
-    public static final int INFINITY = Integer.MAX_VALUE;
-    private Map<String,Vertex> vertexMap = new HashMap<String,Vertex>( );
-    private List<String> edgesUp = new ArrayList<String>();
-    private List<String> edgesDown = new ArrayList<String>();
-    private List<Vertex> vertexUp = new ArrayList<Vertex>();
-    private List<Vertex> vertexDown = new ArrayList<Vertex>();
 
     /**
-     * Add a new undirected edge to the graph.
+     * Return the id of name, adding it with the next id if it is new.
      */
-    public void addUndirectedEdge( String sourceName, String destName, double weightAmt )
+    public int add( String name )
     {
-        Vertex v = getVertex( sourceName );
-        Vertex w = getVertex( destName );
-        v.adj.add( w );
-        v.weight.add(weightAmt);
-        edgeup(sourceName, destName);
-        w.adj.add( v );
-        w.weight.add(weightAmt);
-        edgeup(destName, sourceName);
+        byte[] bytes = ascii( name ) ? null : name.getBytes( StandardCharsets.UTF_8 );
+        int mask = table.length - 1;
+        int slot = hash( name, bytes ) & mask;
+        for( ; table[ slot ] != 0; slot = ( slot + 1 ) & mask )
+            if( matches( table[ slot ] - 1, name, bytes ) )
+                return table[ slot ] - 1;
 
+        int length = bytes == null ? name.length( ) : bytes.length;
+        int end = start[ size ];
+        if( end + length > arena.length )
+            arena = Arrays.copyOf( arena, Math.max( arena.length * 2, end + length ) );
+        for( int i = 0; i < length; i++ )
+            arena[ end + i ] = bytes == null ? (byte) name.charAt( i ) : bytes[ i ];
+        if( size + 2 > start.length )
+            start = Arrays.copyOf( start, start.length * 2 );
+        start[ size + 1 ] = end + length;
+        table[ slot ] = ++size;
+        if( size * 2 > table.length )
+            rehash( table.length * 2 );
+        return size - 1;
     }
 
     /**
-     * Add a new directed edge to the graph.
+     * Return the name with the given id.
      */
-    public void addEdge(String tailvertex, String headvertex,double transmit_time)
+    public String name( int id )
     {
-        Vertex v = getVertex( tailvertex );
-        Vertex w = getVertex( headvertex );
-        edgeup(tailvertex, headvertex);
-        v.adj.add( w );
-        v.weight.add(transmit_time);
+        return new String( arena, start[ id ], start[ id + 1 ] - start[ id ], StandardCharsets.UTF_8 );
     }
 
     /**
-     * Add given edge to up list.
+     * Bytes held by the arena, offsets and table.
      */
-    public void edgeup(String tailvertex,String headvertex){
-        edgesUp.add(tailvertex + " to " + headvertex);
-        if(edgesDown.contains(tailvertex + " to " + headvertex)){
-            edgesDown.remove(edgesDown.indexOf(tailvertex + " to " + headvertex));
-        }
+    public long bytes( )
+    {
+        return arena.length + 4L * ( start.length + table.length );
     }
 
     /**
-     * Add given edge to down list.
+     * Write the names to a snapshot: int arena bytes, int[] offsets of the
+     * size + 1 name boundaries, the arena, then int table length and the
+     * lookup table.
      */
-    public void edgedown(String tailvertex,String headvertex){
-        edgesDown.add(tailvertex + " to " + headvertex);
-        if(edgesUp.contains(tailvertex + " to " + headvertex)){
-            edgesUp.remove(edgesUp.indexOf(tailvertex + " to " + headvertex));
-        }
+    public void write( DataOutputStream out ) throws IOException
+    {
+        out.writeInt( start[ size ] );
+        for( int id = 0; id <= size; id++ )
+            out.writeInt( start[ id ] );
+        out.write( arena, 0, start[ size ] );
+        out.writeInt( table.length );
+        for( int slot : table )
+            out.writeInt( slot );
     }
 
     /**
-     * Add given vertex to up list.
+     * Read n names written by write( ), taking the arena, offsets and lookup
+     * table as they are, so no name is hashed or compared. Without a table
+     * (a version 1 snapshot), each name is hashed once instead.
      */
-    public void vertexup(Vertex v){
-        vertexUp.add(v);
-        if(vertexDown.contains(v)){
-            vertexDown.remove(vertexDown.indexOf(v));
+    public static SymbolTable read( ByteBuffer in, int n, boolean withTable )
+    {
+        SymbolTable t = new SymbolTable( );
+        t.arena = new byte[ Math.max( 256, in.getInt( ) ) ];
+        t.start = Arrays.copyOf( Snapshot.ints( in, n + 1 ), Math.max( 17, n + 1 ) );
+        in.get( t.arena, 0, t.start[ n ] );
+        t.size = n;
+        int length = withTable ? in.getInt( ) : 0;
+        if( length == 0 )
+            t.rehash( Integer.highestOneBit( Math.max( 16, n ) * 2 - 1 ) << 1 );
+        else if( Integer.bitCount( length ) != 1 || length < 2 * n )
+            throw new IndexOutOfBoundsException( "Bad name table length " + length );
+        else
+            t.table = Snapshot.ints( in, length );
+        return t;
+    }
+
+    private void rehash( int length )
+    {
+        table = new int[ length ];
+        int mask = length - 1;
+        for( int id = 0; id < size; id++ )
+        {
+            int h = 0;
+            for( int i = start[ id ]; i < start[ id + 1 ]; i++ )
+                h = 31 * h + arena[ i ];
+            int slot = mix( h ) & mask;
+            while( table[ slot ] != 0 )
+                slot = ( slot + 1 ) & mask;
+            table[ slot ] = id + 1;
         }
     }
 
+    private static boolean ascii( String name )
+    {
+        for( int i = 0; i < name.length( ); i++ )
+            if( name.charAt( i ) >= 0x80 )
+                return false;
+        return true;
+    }
+
+    // Hash of the UTF-8 bytes of name, given as bytes unless it is all ASCII
+    private static int hash( String name, byte[] bytes )
+    {
+        int h = 0;
+        if( bytes == null )
+            for( int i = 0; i < name.length( ); i++ )
+                h = 31 * h + name.charAt( i );
+        else
+            for( byte b : bytes )
+                h = 31 * h + b;
+        return mix( h );
+    }
+
+    private static int mix( int h )
+    {
+        h *= 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+
+    private boolean matches( int id, String name, byte[] bytes )
+    {
+        int from = start[ id ], length = start[ id + 1 ] - from;
+        if( length != ( bytes == null ? name.length( ) : bytes.length ) )
+            return false;
+        for( int i = 0; i < length; i++ )
+            if( arena[ from + i ] != ( bytes == null ? (byte) name.charAt( i ) : bytes[ i ] ) )
+                return false;
+        return true;
+    }
+}
+
+// Shortest path tree from one source: distance to and predecessor of every
+// vertex, indexed by id (prev is -1 at the source and at unreached vertices).
+// epoch is the topology epoch the tree was computed in.
+class PathTree
+{
+    public int      source;
+    public long     epoch = -1;
+    public double[] dist = new double[ 0 ];
+    public int[]    prev = new int[ 0 ];
+    public PathDag  dag;                  // Every shortest path, if asked for
+
+    public PathTree( int source )
+      { this.source = source; }
+
     /**
-     * Add given vertex to down list.
+     * Reset the tree to n unreached vertices.
      */
-    public void vertexdown(Vertex v){
-        vertexDown.add(v);
-        if(vertexUp.contains(v)){
-            vertexUp.remove(vertexUp.indexOf(v));
+    public void clear( int n )
+    {
+        if( dist.length != n )
+        {
+            dist = new double[ n ];
+            prev = new int[ n ];
         }
+        Arrays.fill( dist, Graph.INFINITY );
+        Arrays.fill( prev, -1 );
+        if( dag != null )
+            dag.clear( n );
     }
 
     /**
-     * Delete edge entirely from current neighbors of starting point
+     * Make room for vertices up to n, which start unreached.
      */
-    public void deleteEdge(String tailvertex, String headvertex)
+    public void extend( int n )
     {
-        Vertex v = getVertex( tailvertex );
-        Vertex w = getVertex( headvertex );
-        int index = v.adj.indexOf( w );
-        v.adj.remove( w );
-        v.weight.remove(v.weight.get(index));
+        int old = dist.length;
+        if( n <= old )
+            return;
+        dist = Arrays.copyOf( dist, n );
+        prev = Arrays.copyOf( prev, n );
+        Arrays.fill( dist, old, n, Graph.INFINITY );
+        Arrays.fill( prev, old, n, -1 );
+        if( dag != null )
+            dag.extend( n );
     }
+}
+
+// Shortest path DAG from one source: every predecessor of each vertex whose
+// path through it costs the best distance to within EPSILON, kept as lists
+// threaded through flat arrays. first[ w ] is the entry of w's latest
+// predecessor, or -1; each entry holds a predecessor in pred and the next
+// entry in next. Filled during the SPF itself: a better distance to w drops
+// its list, and a tie adds to it. Dropped entries are not reused until the
+// next clear, so the arrays hold at most one entry per link relaxed.
+class PathDag
+{
+    public static final double EPSILON = 1e-6;   // Sums of two-decimal costs in another
+                                                 // order differ by far less
+    public int[] first = new int[ 0 ];
+    public int[] pred = new int[ 16 ];
+    public int[] next = new int[ 16 ];
+    public int   entries;
 
     /**
-     * Driver routine to print total distance.
-     * It calls recursive routine to print shortest path to
-     * destNode after a shortest path algorithm has run.
+     * Reset to n vertices without predecessors.
      */
-    public void printPath( String destName )
+    public void clear( int n )
     {
-        Vertex w = vertexMap.get( destName );
-        if( w == null )
-            throw new NoSuchElementException( "Destination vertex not found" );
-        else if( w.dist == INFINITY )
-            System.out.println( destName + " is unreachable" );
-        else
-        {
-            printPath( w );
-            double rounded = (double)((int)(w.dist * 100))/100.0;
-            System.out.print( " " + rounded);
-            System.out.println( );
-        }
+        if( first.length != n )
+            first = new int[ n ];
+        Arrays.fill( first, -1 );
+        entries = 0;
     }
 
     /**
-     * Print all Nodes and their Edges in alphabetical order, with weights of each
+     * Make room for vertices up to n, which have no predecessors.
      */
-    public void print(){
-        ArrayList<String> ordered = new ArrayList<String>();
-        for(Map.Entry<String, Vertex> entry : vertexMap.entrySet()) {
-            ordered.add(entry.getKey());
+    public void extend( int n )
+    {
+        int old = first.length;
+        if( n <= old )
+            return;
+        first = Arrays.copyOf( first, n );
+        Arrays.fill( first, old, n, -1 );
+    }
+
+    public void drop( int w )
+    {
+        first[ w ] = -1;
+    }
+
+    public void add( int w, int v )
+    {
+        if( entries == pred.length )
+        {
+            pred = Arrays.copyOf( pred, 2 * entries );
+            next = Arrays.copyOf( next, 2 * entries );
         }
-        Collections.sort(ordered);
+        pred[ entries ] = v;
+        next[ entries ] = first[ w ];
+        first[ w ] = entries++;
+    }
+}
 
-        for(String entry : ordered) {
-            String key = entry;
-            Vertex v = vertexMap.get(key);
-            
-            System.out.print(key);
+// Scratch state for one SPF run at a time on one thread: a tree to fill and
+// the heap to fill it with. Worker threads each keep their own, so parallel
+// runs never share the dist/prev arrays.
+class SpfWorkspace
+{
+    public final PathTree    tree = new PathTree( -1 );
+    public final IndexedHeap heap = new IndexedHeap( 4 );
+    public final RadixHeap   radix = new RadixHeap( );
+    public long[]            metric = new long[ 0 ];   // Distances for radix, in metric units
+    public int[]             stack = new int[ 0 ];
+}
 
-            if(vertexDown.contains(v))
-                System.out.println(" -- Down");
-            else
-                System.out.println("");
+// SPF throttling after OSPF's spf-delay, spf-hold and spf-max-wait timers,
+// on a virtual clock that moves only when told to, so runs are repeatable.
+// The first change after a quiet spell schedules a run delay ms later, and
+// changes made before then join the same run. Each later run waits at least
+// the hold after the one before, and the hold doubles with every run up to
+// maxWait; a change coming maxWait or more after the last run finds it back
+// at hold. Until a run is due, queries are answered from trees of the last
+// run, unless the oldest change waiting is more than maxStale ms old or more
+// than maxPending changes wait, which forces the run at once.
+class SpfThrottle
+{
+    public final long delay;
+    public final long hold;
+    public final long maxWait;
+    public long maxStale = Long.MAX_VALUE;
+    public int  maxPending = Integer.MAX_VALUE;
+    public long tick = 1;           // Clock advance per request, in ms
 
-            ArrayList<String> orderedInternal = new ArrayList<String>();
-            for(Vertex w : v.adj){
-                orderedInternal.add(w.name);
-            }
-            Collections.sort(orderedInternal);
-            for(String name : orderedInternal){
-                Vertex w = getVertex(name);
-                System.out.print("\t" + w.name + " " + v.weight.get(v.adj.indexOf(w)));
-                if(edgesDown.contains(v.name + " to " + w.name)){
-                    System.out.println(" -- Down");
+    public long now;                // Virtual clock, in ms
+    public long runEpoch;           // Topology epoch as of the last run
+    public long currentHold;
+    public long runs;
+    public long forced;             // Runs forced early by the staleness bounds
+    public long changes;
+    public long avoided;            // Changes folded into a run along with others
+    public long staleAnswers;       // Queries answered from a tree older than the topology
+    private int  pending;           // Changes since the last run
+    private long firstPending;      // When the oldest of them came
+    private long scheduled;         // When the next run is due, if any are pending
+    private long lastRun = Long.MIN_VALUE / 2;
 
-                }else{
-                    System.out.println("");
-                }
-            }
-        }
+    public SpfThrottle( long delay, long hold, long maxWait )
+    {
+        this.delay = delay;
+        this.hold = hold;
+        this.maxWait = Math.max( hold, maxWait );
+        currentHold = hold;
     }
 
+    public int pending( )
+      { return pending; }
+
     /**
-     * If vertexName is not present, add it to vertexMap and to the up list.
-     * In either case, return the Vertex.
+     * Note a change made while the topology epoch was epoch. A run that
+     * fell due before it is made first, without it.
      */
-    private Vertex getVertex( String vertexName )
+    public void changed( long epoch )
     {
-        Vertex v = vertexMap.get( vertexName );
-        if( v == null ){
-            v = new Vertex( vertexName );
-            vertexMap.put( vertexName, v );
+        catchUp( epoch );
+        changes++;
+        if( pending++ == 0 )
+        {
+            firstPending = now;
+            if( now - lastRun >= maxWait )
+                currentHold = hold;
+            scheduled = Math.max( now + delay, lastRun + currentHold );
         }
-        vertexup(v);
-        return (v);
     }
 
     /**
-     * Recursive routine to print shortest path to dest
-     * after running shortest path algorithm. The path
-     * is known to exist.
+     * Make whatever run is due for a query at epoch: the scheduled one if
+     * its time has come, or one at once if the changes waiting are past
+     * the staleness bounds.
      */
-    private void printPath( Vertex dest )
+    public void query( long epoch )
     {
-        if( dest.prev != null )
+        catchUp( epoch );
+        if( pending > 0 && ( now - firstPending > maxStale || pending > maxPending ) )
         {
-            printPath( dest.prev );
-            System.out.print( " " );
+            forced++;
+            run( now, epoch );
         }
-        System.out.print( dest.name );
     }
-    
-    /**
-     * Initializes the vertex output info prior to running
-     * any shortest path algorithm.
-     */
-    private void clearAll( )
+
+    private void catchUp( long epoch )
+    {
+        if( pending > 0 && now >= scheduled )
+            run( scheduled, epoch );
+    }
+
+    private void run( long at, long epoch )
+    {
+        runs++;
+        avoided += pending - 1;
+        pending = 0;
+        lastRun = at;
+        runEpoch = epoch;
+        currentHold = Math.min( 2 * currentHold, maxWait );
+    }
+}
+
+// Latency histogram in the manner of HdrHistogram: exact counts below 128 ns,
+// then 64 buckets to each doubling, so every value is kept to within 1/64 of
+// itself in one fixed array. Recording is a few shifts and increments and
+// never allocates.
+class LatencyHistogram
+{
+    private static final int SUB = 64;
+    private final long[] counts = new long[ 58 * SUB ];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record( long nanos )
+    {
+        long v = Math.max( 0, nanos );
+        counts[ index( v ) ]++;
+        count++;
+        total += v;
+        if( v > max )
+            max = v;
+    }
+
+    private static int index( long v )
     {
-        for( Vertex v : vertexMap.values( ) )
-            v.reset( );
+        if( v < 2 * SUB )
+            return (int) v;
+        int shift = 57 - Long.numberOfLeadingZeros( v );    // Leaves v >>> shift in [ 64, 128 )
+        return shift * SUB + (int)( v >>> shift );
     }
 
     /**
-     * Compiles a list of all reachable destination Nodes from a list of starting Nodes, displayed alphabetically
-     */
-    /*
-     * The algorithm uses a queue for breadth-first search, which originally has a worst-case time 
-     * complexity of O(V+E). However,the vertices are processed in alphabetical order and the queue 
-     * size is upper-bounded by the total amount of vertices, O(V). Therefore, the overall time 
-     * complexity results in O(V^2 + E).
+     * Largest value that falls in the same bucket as bucket i's values.
      */
-    public void reachable(){
-        Map<String, ArrayList<Vertex>> reachableDestinations = new HashMap<>();
+    private static long highest( int i )
+    {
+        if( i < 2 * SUB )
+            return i;
+        int shift = i / SUB - 1;
+        return ( (long)( i % SUB + SUB + 1 ) << shift ) - 1;
+    }
 
-        // Loop through each point in the graph in alphabetical order
-        ArrayList<String> ordered = new ArrayList<String>();
-        for(Map.Entry<String, Vertex> entry : vertexMap.entrySet()) {
-            ordered.add(entry.getKey());
-        }
-        Collections.sort(ordered);
+    public long count( )
+      { return count; }
 
-        for(String entry : ordered) {
-            // Initialize an array to keep track of visited nodes
-            ArrayList<Vertex> visited = new ArrayList<Vertex>();
+    public long max( )
+      { return max; }
+
+    public double mean( )
+      { return count == 0 ? 0 : total / (double) count; }
+
+    /**
+     * Value that the given fraction of recorded values are no larger than,
+     * to the precision of the buckets; 0 if nothing was recorded.
+     */
+    public long percentile( double fraction )
+    {
+        long rank = Math.max( 1, (long) Math.ceil( fraction * count ) );
+        long seen = 0;
+        for( int i = 0; i < counts.length && count > 0; i++ )
+            if( ( seen += counts[ i ] ) >= rank )
+                return Math.min( max, highest( i ) );
+        return max;
+    }
+}
 
-            // Initialize an array to store the reachable destinations for this node
-            ArrayList<Vertex> destinations = new ArrayList<Vertex>();
+// Forwarding tables for every router: for each source and destination, the
+// first hop to take and the total cost, or -1 and INFINITY if unreachable.
+// Rows are indexed by vertex id; names[ id ] gives the router name.
+class RoutingTable
+{
+    public static final int MAGIC = 0x4f535046;   // "OSPF"
+    public static final int VERSION = 1;
 
-            // Initialize a queue with the current point as the starting node
-            Queue<Vertex> queue = new LinkedList<>();
-            Vertex v = vertexMap.get(entry);
-            queue.add(v);
+    public final String[]   names;
+    public final boolean[]  down;      // Source was down, so its row is empty
+    public final int[][]    nextHop;
+    public final double[][] cost;
+    public boolean          integerMetrics;   // Costs are exact hundredths, printed rounded
 
-            // While nodes in the queue
-            while (!queue.isEmpty()) {
-                // Dequeue to next point 
-                Vertex current = queue.remove();
+    public RoutingTable( String[] names )
+    {
+        this.names = names;
+        down = new boolean[ names.length ];
+        nextHop = new int[ names.length ][];
+        cost = new double[ names.length ][];
+    }
 
-                if (!visited.contains(current) && !vertexDown.contains(current)) {
-                    // Add it to the set of visited nodes
-                    visited.add(current);
-    
-                    // Add all neighboring nodes
-                    for (Vertex neighbor : current.adj) {
-                        if (!visited.contains(neighbor) && !edgesDown.contains(current + " to " + neighbor) && !vertexDown.contains(neighbor)) {
-                            queue.add(neighbor);
-                        }
-                    }
-    
-                    // Add all neighboring nodes to reachable destinations
-                    for (Vertex neighbor : current.adj) {
-                        if (!visited.contains(neighbor) && !vertexDown.contains(neighbor) && !edgesDown.contains(current + " to " + neighbor)) {
-                            destinations.add(neighbor);
-                        }
-                    }
-                }
+    /**
+     * Next hop from t's source to every vertex, or -1 if it is the source
+     * or unreached: the first vertex after the source on its prev chain,
+     * found once per vertex by walking up to a known one.
+     */
+    public static int[] nextHops( PathTree t, SpfWorkspace ws )
+    {
+        int n = t.prev.length;
+        int[] hop = new int[ n ];
+        Arrays.fill( hop, -1 );
+        if( ws.stack.length < n )
+            ws.stack = new int[ n ];
+        int[] stack = ws.stack;
+        for( int v = 0; v < n; v++ )
+        {
+            if( v == t.source || hop[ v ] >= 0 || t.prev[ v ] < 0 )
+                continue;
+            int depth = 0;
+            int u = v;
+            while( hop[ u ] < 0 && t.prev[ u ] != t.source )
+            {
+                stack[ depth++ ] = u;
+                u = t.prev[ u ];
             }
-    
-            // Add reachable destinations to the map
-            reachableDestinations.put(entry, destinations);
+            int first = hop[ u ] >= 0 ? hop[ u ] : u;
+            hop[ u ] = first;
+            while( depth > 0 )
+                hop[ stack[ --depth ] ] = first;
         }
-    
-        // Print the reachable destinations for each point
-        ArrayList<String> ordered_after = new ArrayList<String>();
-        for(Map.Entry<String, ArrayList<Vertex>> entry : reachableDestinations.entrySet()) {
-            ordered_after.add(entry.getKey());
-        }
-        Collections.sort(ordered);
-
-        for(String entry : ordered) {
-            String key = entry;
-            ArrayList<Vertex> v = reachableDestinations.get(key);
+        return hop;
+    }
 
-            if(vertexDown.contains(vertexMap.get(key)))
+    /**
+     * Print each router in name order, followed by one line per reachable
+     * destination: destination, next hop, and cost rounded as in path.
+     */
+    public void print( PrintStream out, int[] ordered )
+    {
+        for( int v : ordered )
+        {
+            out.print( names[ v ] );
+            if( down[ v ] )
+            {
+                out.println( " -- Down" );
                 continue;
-            else
-                System.out.println(key);
-
-            ArrayList<String> orderedInternal = new ArrayList<String>();
-            for(Vertex w : v){
-                orderedInternal.add(w.name);
             }
-            Collections.sort(orderedInternal);
-            ArrayList<String> printed = new ArrayList<String>();
-            for(String name : orderedInternal){
-                if(!printed.contains(name)){
-                    Vertex w = vertexMap.get(name);
-                    System.out.println("\t" + w.name);
-                    printed.add(name);
-                }
+            out.println( "" );
+            for( int w : ordered )
+            {
+                if( w == v || nextHop[ v ][ w ] < 0 )
+                    continue;
+                double rounded = integerMetrics ? LinkStore.rounded( cost[ v ][ w ] )
+                                                : (double)((int)(cost[ v ][ w ] * 100))/100.0;
+                out.println( "\t" + names[ w ] + " " + names[ nextHop[ v ][ w ] ] + " " + rounded );
             }
         }
     }
-    
 
     /**
-     * Simulated OSPF (Open Shortest Path First) protocol that checks for downed edges and vertices
+     * Write the table in binary: MAGIC, VERSION, router count n, n names in
+     * modified UTF-8, n down flags, then for every source an n-entry row of
+     * (int next hop, double cost) pairs. Down sources have no row.
      */
-
-    public void ospf( String startName )
+    public void write( DataOutputStream out ) throws IOException
     {
-
-        clearAll();
-
-        if(vertexDown.contains(vertexMap.get(startName))){
-            System.out.println("Starting location is down");
-            return;
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( names.length );
+        for( String name : names )
+            out.writeUTF( name );
+        for( boolean d : down )
+            out.writeBoolean( d );
+        for( int v = 0; v < names.length; v++ )
+        {
+            if( down[ v ] )
+                continue;
+            for( int w = 0; w < names.length; w++ )
+            {
+                out.writeInt( nextHop[ v ][ w ] );
+                out.writeDouble( cost[ v ][ w ] );
+            }
         }
+    }
+}
 
-        Vertex start = vertexMap.get(startName);
-        if (start == null) {
-            throw new NoSuchElementException("Start vertex not found");
-        }
+// One request line, tokenized once: which request it is and its arguments.
+// Requests are recognized by prefix, in the order processRequest always has
+// (paths goes first, so that it is not taken for path), and arguments are
+// split the same way: a single space ends each name, and the last one runs
+// to the end of the line. A malformed request has a null first argument.
+class Command
+{
+    public static final int UNKNOWN = 0, PATH = 1, CACHE = 2, CANREACH = 3, ROUTINGTABLE = 4,
+                            PRINT = 5, QUIT = 6, REACHABLE = 7, EDGEDOWN = 8, EDGEUP = 9,
+                            VERTEXDOWN = 10, VERTEXUP = 11, ADDEDGE = 12, DELETEEDGE = 13,
+                            SAVE = 14, LOAD = 15, ROUTE = 16, HIERARCHY = 17, FRR = 18, PATHS = 19,
+                            WAIT = 20, THROTTLE = 21, STATS = 22, SPF = 23, AREA = 24;
 
-        PriorityQueue<Vertex> pq = new PriorityQueue<Vertex>();
-        start.dist = 0;
-        pq.offer(start);
+    private static final String[] NAMES = { "paths", "path", "cache", "canreach", "routingtable",
+        "print", "quit", "reachable", "edgedown", "edgeup", "vertexdown", "vertexup",
+        "addedge", "deleteedge", "save", "load", "route", "hierarchy", "frr", "wait", "throttle",
+        "stats", "spf", "area" };
+    private static final int[] OPS = { PATHS, PATH, CACHE, CANREACH, ROUTINGTABLE, PRINT, QUIT,
+        REACHABLE, EDGEDOWN, EDGEUP, VERTEXDOWN, VERTEXUP, ADDEDGE, DELETEEDGE, SAVE, LOAD, ROUTE,
+        HIERARCHY, FRR, WAIT, THROTTLE, STATS, SPF, AREA };
 
-        while (!pq.isEmpty()) {
-            Vertex v = pq.poll();
+    public final int    op;
+    public final String line;      // The request as typed
+    public final String first;     // First argument, or null
+    public final String second;    // Second argument, or null
+    public final double weight;    // Weight of addedge
+    public final String third;     // Optional last argument of route, or null
 
-            // Visit all neighbors of the current vertex
-            for (Vertex w : v.adj) {
-                if(vertexDown.contains(w) ||
-                edgesDown.contains(v.name + " to " + w.name))
-                    continue;
+    private Command( int op, String line, String first, String second, double weight )
+    {
+        this( op, line, first, second, weight, null );
+    }
 
-                double weight = v.weight.get(v.adj.indexOf(w));
+    private Command( int op, String line, String first, String second, double weight, String third )
+    {
+        this.op = op; this.line = line;
+        this.first = first; this.second = second; this.weight = weight; this.third = third;
+    }
 
-                // If we found a shorter path to the neighbor, update its distance
-                if (v.dist + weight < w.dist) {
-                    pq.remove(w);
-                    w.dist = v.dist + weight;
-                    w.prev = v;
-                    pq.offer(w);
-                }
-            }
-        }
+    /**
+     * Rebuild a request from its parts, as read back from a journal.
+     */
+    public static Command of( int op, String first, String second, double weight )
+    {
+        return new Command( op, name( op ), first, second, weight );
     }
 
+    /**
+     * Name of the request with the given op, or "unknown".
+     */
+    public static String name( int op )
+    {
+        for( int i = 0; i < OPS.length; i++ )
+            if( OPS[ i ] == op )
+                return NAMES[ i ];
+        return "unknown";
+    }
 
+    /**
+     * Ops run from 0 (UNKNOWN) to count( ) - 1.
+     */
+    public static int count( )
+    {
+        return OPS.length + 1;
+    }
 
     /**
-     * Process a request; return false if end of file.
+     * True for requests that change the topology or its up/down state.
      */
-    public static boolean processRequest( Scanner in, Graph g )
+    public boolean changesTopology( )
     {
-        String query = in.nextLine();
+        return op >= EDGEDOWN && op <= DELETEEDGE;
+    }
+
+    public static Command parse( String line )
+    {
+        int op = UNKNOWN;
+        for( int i = 0; i < NAMES.length && op == UNKNOWN; i++ )
+            if( line.startsWith( NAMES[ i ] ) )
+                op = OPS[ i ];
 
-        //path request
-        if(query.startsWith("path")){
+        String rest = line.substring( line.indexOf( ' ' ) + 1 );
+        int space = rest.indexOf( ' ' );
+        switch( op )
+        {
+          case VERTEXDOWN:
+          case VERTEXUP:
+            return new Command( op, line, rest, null, 0 );
+          case ROUTINGTABLE:
+          case SAVE:
+          case LOAD:
+          case HIERARCHY:
+          case FRR:
+          case WAIT:
+          case THROTTLE:
+          case SPF:
+            return new Command( op, line, line.indexOf( ' ' ) < 0 ? null : rest, null, 0 );
+          case PATH:
+          case PATHS:
+          case CANREACH:
+          case AREA:
+          case EDGEDOWN:
+          case EDGEUP:
+          case DELETEEDGE:
+            if( space < 0 )
+                return new Command( op, line, null, null, 0 );
+            return new Command( op, line, rest.substring( 0, space ), rest.substring( space + 1 ), 0 );
+          case ROUTE:
+          {
+            if( space < 0 )
+                return new Command( op, line, null, null, 0 );
+            String tail = rest.substring( space + 1 );
+            int last = tail.lastIndexOf( ' ' );
+            if( last >= 0 && Arrays.asList( PointToPoint.METHODS ).contains( tail.substring( last + 1 ) ) )
+                return new Command( op, line, rest.substring( 0, space ), tail.substring( 0, last ), 0,
+                                    tail.substring( last + 1 ) );
+            return new Command( op, line, rest.substring( 0, space ), tail, 0 );
+          }
+          case ADDEDGE:
             try
             {
-                query = query.substring(query.indexOf(" ")+1);
-                String startName = query.substring(0,query.indexOf(" "));
-
-                query = query.substring(query.indexOf(" ")+1);
-                String destName = query;
-
-                g.ospf( startName );
-                g.printPath( destName );
+                String tail = rest.substring( space + 1 );
+                int next = tail.indexOf( ' ' );
+                return new Command( op, line, rest.substring( 0, space ), tail.substring( 0, next ),
+                                    Double.parseDouble( tail.substring( next + 1 ) ) );
             }
-            catch( NoSuchElementException e )
-            { System.out.println("One of the vertices given is invalid"); }
-            catch( GraphException e )
-            { System.err.println( e ); }
-            return true;
-        }
-        //print request
-        else if(query.startsWith("print")){
-            g.print();
-            return true;
-        }
-        //quit request
-        else if(query.startsWith("quit")){
-            return false;
-        }
-        //reachable request
-        else if(query.startsWith("reachable")){
-            g.reachable();
-            return true;
+            catch( StringIndexOutOfBoundsException | NumberFormatException e )
+              { return new Command( op, line, null, null, 0 ); }
+          default:
+            return new Command( op, line, null, null, 0 );
         }
-        //edgedown request
-        else if(query.startsWith("edgedown")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0,query.indexOf(" "));
-            query = query.substring(query.indexOf(" ")+1);
-            String destName = query;
-
-            if(!g.vertexMap.containsKey(startName) || !g.vertexMap.containsKey(destName)){
-                System.out.println("One or more of the vertices requested do not exist yet and thus their " +
-                "edge cannot be listed as Down");
-                return true;
-            }
+    }
+}
 
-            g.edgedown(startName,destName);
-            return true;
-        }
-        //edgeup request
-        else if(query.startsWith("edgeup")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0,query.indexOf(" "));
-            query = query.substring(query.indexOf(" ")+1);
-            String destName = query;
+// Indexed d-ary min-heap over vertex ids, keyed by an external distance
+// array. pos[ v ] is the heap slot of v, or -1 when v is not queued, which
+// gives a true O(log n) decrease-key in place of PriorityQueue.remove( ).
+// A lower key must be written to the key array before calling update( ).
+class IndexedHeap
+{
+    private final int d;                 // Children per node
+    private int[]    heap = new int[ 16 ];
+    private int[]    pos  = new int[ 16 ];
+    private int      size;
+    private double[] key;
 
-            if(!g.vertexMap.containsKey(startName) || !g.vertexMap.containsKey(destName)){
-                System.out.println("One or more of the vertices requested do not exist yet and thus their " +
-                "edge cannot be listed as Up");
-                return true;
-            }
+    public IndexedHeap( int arity )
+    {
+        if( arity < 2 )
+            throw new IllegalArgumentException( "Heap arity must be at least 2" );
+        d = arity;
+        Arrays.fill( pos, -1 );
+    }
 
-            g.edgeup(startName,destName);
-            return true;
-        }
-        //vertexdown request
-        else if(query.startsWith("vertexdown")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0);
-            if(!g.vertexMap.containsKey(startName)){
-                System.out.println("The vertex requested does not exist yet and thus cannot " +
-                "be labeled as down");
-                return true;
-            }
-            Vertex v = g.getVertex(startName);
-            g.vertexdown(v);
-            return true;
-        }
-        //vertexup request
-        else if(query.startsWith("vertexup")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0);
-            if(!g.vertexMap.containsKey(startName)){
-                System.out.println("The vertex requested does not exist yet and thus cannot " +
-                "be labeled as Up");
-                return true;
-            }
-            Vertex v = g.vertexMap.get(startName);
-            g.vertexup(v);
-            return true;
+    /**
+     * Prepare an empty heap for ids 0..n-1 ordered by keys.
+     */
+    public void reset( double[] keys, int n )
+    {
+        for( int i = 0; i < size; i++ )
+            pos[ heap[ i ] ] = -1;
+        size = 0;
+        key = keys;
+        if( n > pos.length )
+        {
+            int length = Math.max( n, pos.length * 2 );
+            heap = new int[ length ];
+            pos = new int[ length ];
+            Arrays.fill( pos, -1 );
         }
-        //addedge request
-        else if(query.startsWith("addedge")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0,query.indexOf(" "));
-            query = query.substring(query.indexOf(" ")+1);
-            String destName = query.substring(0,query.indexOf(" "));
-            query = query.substring(query.indexOf(" ")+1);
-            double weight = Double.parseDouble(query);
+    }
 
-            g.addEdge(startName, destName, weight);
-            return true;
-        }
-        //deleteedge request
-        else if(query.startsWith("deleteedge")){
-            query = query.substring(query.indexOf(" ")+1);
-            String startName = query.substring(0,query.indexOf(" "));
+    public boolean isEmpty( )
+      { return size == 0; }
 
-            query = query.substring(query.indexOf(" ")+1);
-            String destName = query;
-            
-            if(!g.vertexMap.containsKey(startName) || !g.vertexMap.containsKey(destName)){
-                System.out.println("One or more of the vertices requested do not exist yet and thus their " +
-                "edge cannot be deleted");
-                return true;
-            }
+    /**
+     * Return the id with the smallest key, leaving it in place.
+     */
+    public int peek( )
+      { return heap[ 0 ]; }
 
-            g.deleteEdge(startName, destName);
+    public boolean contains( int v )
+      { return pos[ v ] >= 0; }
+
+    /**
+     * Insert v, or move it up if its key has decreased.
+     */
+    public void update( int v )
+    {
+        int i = pos[ v ];
+        if( i < 0 )
+        {
+            i = size++;
+            heap[ i ] = v;
+        }
+        siftUp( i );
+    }
+
+    /**
+     * Remove and return the id with the smallest key.
+     */
+    public int poll( )
+    {
+        int top = heap[ 0 ];
+        pos[ top ] = -1;
+        if( --size > 0 )
+        {
+            heap[ 0 ] = heap[ size ];
+            siftDown( 0 );
+        }
+        return top;
+    }
+
+    private void siftUp( int i )
+    {
+        int v = heap[ i ];
+        double k = key[ v ];
+        while( i > 0 )
+        {
+            int parent = ( i - 1 ) / d;
+            int p = heap[ parent ];
+            if( key[ p ] <= k )
+                break;
+            heap[ i ] = p;
+            pos[ p ] = i;
+            i = parent;
+        }
+        heap[ i ] = v;
+        pos[ v ] = i;
+    }
+
+    private void siftDown( int i )
+    {
+        int v = heap[ i ];
+        double k = key[ v ];
+        while( true )
+        {
+            int first = i * d + 1;
+            if( first >= size )
+                break;
+            int best = first;
+            for( int c = first + 1, last = Math.min( first + d, size ); c < last; c++ )
+                if( key[ heap[ c ] ] < key[ heap[ best ] ] )
+                    best = c;
+            if( key[ heap[ best ] ] >= k )
+                break;
+            heap[ i ] = heap[ best ];
+            pos[ heap[ i ] ] = i;
+            i = best;
+        }
+        heap[ i ] = v;
+        pos[ v ] = i;
+    }
+}
+
+// Monotone radix heap over vertex ids, keyed by an external array of integer
+// distances, for Dijkstra's algorithm on integer metrics. Ids sit in buckets
+// by the highest bit in which their key differs from the last key polled;
+// bucket 0 holds keys equal to it. As keys never fall below the last one
+// polled, an id only ever moves to lower buckets, at most 63 times in all,
+// and poll scans just the first nonempty bucket. Buckets are doubly linked
+// lists threaded through flat arrays, so update( ) is O(1) and a run
+// allocates nothing. A lower key must be written before calling update( ).
+class RadixHeap
+{
+    private static final int BUCKETS = 64;
+    private final int[] head = new int[ BUCKETS ];
+    private long   occupied;                 // Bit b set while bucket b is not empty
+    private int[]  next = new int[ 16 ];
+    private int[]  prev = new int[ 16 ];
+    private byte[] bucket = new byte[ 16 ];  // Bucket of each id, or -1 when not queued
+    private int    size;
+    private long   last;                     // Key last polled
+    private long[] key;
+
+    public RadixHeap( )
+    {
+        Arrays.fill( head, -1 );
+        Arrays.fill( bucket, (byte) -1 );
+    }
+
+    /**
+     * Prepare an empty heap for ids 0..n-1 ordered by keys, none below 0.
+     */
+    public void reset( long[] keys, int n )
+    {
+        while( occupied != 0 )
+        {
+            int b = Long.numberOfTrailingZeros( occupied );
+            for( int v = head[ b ]; v >= 0; v = next[ v ] )
+                bucket[ v ] = -1;
+            head[ b ] = -1;
+            occupied &= occupied - 1;
+        }
+        size = 0;
+        last = 0;
+        key = keys;
+        if( n > bucket.length )
+        {
+            int length = Math.max( n, bucket.length * 2 );
+            next = new int[ length ];
+            prev = new int[ length ];
+            bucket = new byte[ length ];
+            Arrays.fill( bucket, (byte) -1 );
+        }
+    }
+
+    public boolean isEmpty( )
+      { return size == 0; }
+
+    public boolean contains( int v )
+      { return bucket[ v ] >= 0; }
+
+    /**
+     * Remove and return the id with the smallest key.
+     */
+    public int poll( )
+    {
+        if( size == 0 )
+            throw new NoSuchElementException( );
+        if( head[ 0 ] < 0 )
+        {
+            // Take the smallest key of the first bucket as the new last,
+            // which sends every id in that bucket to a lower one
+            int b = Long.numberOfTrailingZeros( occupied );
+            long min = Long.MAX_VALUE;
+            for( int v = head[ b ]; v >= 0; v = next[ v ] )
+                min = Math.min( min, key[ v ] );
+            last = min;
+            int v = head[ b ];
+            head[ b ] = -1;
+            occupied &= ~( 1L << b );
+            while( v >= 0 )
+            {
+                int following = next[ v ];
+                link( v );
+                v = following;
+            }
+        }
+        int v = head[ 0 ];
+        unlink( v );
+        bucket[ v ] = -1;
+        size--;
+        return v;
+    }
+
+    /**
+     * Insert v, or move it after its key was lowered.
+     */
+    public void update( int v )
+    {
+        if( bucket[ v ] >= 0 )
+            unlink( v );
+        else
+            size++;
+        link( v );
+    }
+
+    private void link( int v )
+    {
+        long k = key[ v ];
+        int b = k == last ? 0 : 64 - Long.numberOfLeadingZeros( k ^ last );
+        bucket[ v ] = (byte) b;
+        prev[ v ] = -1;
+        next[ v ] = head[ b ];
+        if( head[ b ] >= 0 )
+            prev[ head[ b ] ] = v;
+        head[ b ] = v;
+        occupied |= 1L << b;
+    }
+
+    private void unlink( int v )
+    {
+        int b = bucket[ v ];
+        if( prev[ v ] >= 0 )
+            next[ prev[ v ] ] = next[ v ];
+        else
+            head[ b ] = next[ v ];
+        if( next[ v ] >= 0 )
+            prev[ next[ v ] ] = prev[ v ];
+        if( head[ b ] < 0 )
+            occupied &= ~( 1L << b );
+    }
+}
+
+// Compact adjacency store: one row of outgoing links per vertex id, kept in
+// compressed-sparse-row form (row offsets into flat target/weight arrays).
+// Each link also carries a flag byte (currently only DOWN).
+// Rows carry slack so links can be appended in place. A row that runs out of
+// room is moved to the end of the arrays; the holes it leaves behind are
+// reclaimed by compact( ) once they outnumber the live links.
+// With setOffHeap( true ) the three per-link arrays become direct buffers
+// outside the Java heap, so links cost the heap and the collector nothing.
+//
+// Iterate the links of vertex v with
+//     for( int e = store.begin( v ); e < store.end( v ); e++ )
+//         ... store.target( e ) ... store.weight( e ) ...
+class LinkStore
+{
+    public static final byte DOWN = 1;           // Link is administratively down
+    public static final int METRIC_SCALE = 100;  // Integer metric units per unit of cost
+
+    private int[]    offset = new int[ 16 ];     // First slot of each row
+    private int[]    size   = new int[ 16 ];     // Live links in each row
+    private int[]    cap    = new int[ 16 ];     // Slots reserved for each row
+    private int[]    target = new int[ 64 ];     // Head vertex of each link
+    private double[] weight = new double[ 64 ];  // Cost of each link
+    private byte[]   flags  = new byte[ 64 ];    // State bits of each link
+    private IntBuffer    directTarget;           // The same three off the heap, in place
+    private DoubleBuffer directWeight;           // of the arrays, which are then null
+    private ByteBuffer   directFlags;
+    private int slots = 64;                      // Length of the three
+    private int rows;                            // Number of rows (vertices)
+    private int used;                            // Slots handed out so far
+    private int live;                            // Live links over all rows
+    private int reserved;                        // Slots reserved by live rows
+
+    /**
+     * Add an empty row and return its id.
+     */
+    public int addRow( )
+    {
+        if( rows == offset.length )
+        {
+            offset = Arrays.copyOf( offset, rows * 2 );
+            size = Arrays.copyOf( size, rows * 2 );
+            cap = Arrays.copyOf( cap, rows * 2 );
+        }
+        offset[ rows ] = used;
+        return rows++;
+    }
+
+    public int rows( )
+      { return rows; }
+
+    public int links( )
+      { return live; }
+
+    public int begin( int v )
+      { return offset[ v ]; }
+
+    public int end( int v )
+      { return offset[ v ] + size[ v ]; }
+
+    public int degree( int v )
+      { return size[ v ]; }
+
+    public int target( int e )
+      { return target != null ? target[ e ] : directTarget.get( e ); }
+
+    public double weight( int e )
+      { return weight != null ? weight[ e ] : directWeight.get( e ); }
+
+    /**
+     * Cost of link e as an integer metric, in hundredths. Exact for costs
+     * that went through rounded( ).
+     */
+    public long metric( int e )
+      { return Math.round( weight( e ) * METRIC_SCALE ); }
+
+    /**
+     * Cost rounded to the nearest whole number of metric units.
+     */
+    public static double rounded( double cost )
+      { return Math.round( cost * METRIC_SCALE ) / (double) METRIC_SCALE; }
+
+    /**
+     * Round the cost of every link to whole metric units.
+     */
+    public void roundWeights( )
+    {
+        for( int v = 0; v < rows; v++ )
+            for( int e = offset[ v ], end = e + size[ v ]; e < end; e++ )
+                setWeight( e, rounded( weight( e ) ) );
+    }
+
+    public boolean isDown( int e )
+      { return ( flag( e ) & DOWN ) != 0; }
+
+    public void setDown( int e, boolean down )
+      { setFlag( e, (byte) ( down ? flag( e ) | DOWN : flag( e ) & ~DOWN ) ); }
+
+    public boolean isOffHeap( )
+      { return target == null; }
+
+    /**
+     * Move the links off the heap into direct buffers, or back onto it.
+     */
+    public void setOffHeap( boolean offHeap )
+    {
+        if( offHeap != isOffHeap( ) )
+        {
+            LinkStore old = slotsOf( );
+            allocate( slots, offHeap );
+            copySlots( old, 0, 0, used );
+        }
+    }
+
+    /**
+     * Bytes held for the link slots, on the heap or off it.
+     */
+    public long slotBytes( )
+      { return 13L * slots; }
+
+    /**
+     * Bytes held for the rows, always on the heap.
+     */
+    public long rowBytes( )
+      { return 12L * offset.length; }
+
+    /**
+     * Return the slot of link v -> w, or -1 if there is none.
+     */
+    public int find( int v, int w )
+    {
+        for( int e = offset[ v ], end = e + size[ v ]; e < end; e++ )
+            if( target( e ) == w )
+                return e;
+        return -1;
+    }
+
+    /**
+     * Add link v -> w, or update its cost if it already exists.
+     * Either way the link comes back up.
+     * Return the slot now holding the link.
+     */
+    public int add( int v, int w, double cost )
+    {
+        int e = find( v, w );
+        if( e >= 0 )
+        {
+            setWeight( e, cost );
+            setFlag( e, (byte) 0 );
+            return e;
+        }
+        if( size[ v ] == cap[ v ] )
+            grow( v );
+        e = offset[ v ] + size[ v ]++;
+        setSlot( e, w, cost, (byte) 0 );
+        live++;
+        return e;
+    }
+
+    /**
+     * Remove link v -> w, keeping the order of the rest of the row.
+     * Return false if there was no such link.
+     */
+    public boolean remove( int v, int w )
+    {
+        int e = find( v, w );
+        if( e < 0 )
+            return false;
+        int last = offset[ v ] + --size[ v ];
+        copySlots( this, e + 1, e, last - e );
+        live--;
+        return true;
+    }
+
+    /**
+     * Move every row into one contiguous run, in id order, dropping the
+     * holes left by relocated rows and the slack inside each row.
+     */
+    public void compact( )
+    {
+        LinkStore old = slotsOf( );
+        allocate( Math.max( 64, live ), isOffHeap( ) );
+        int next = 0;
+        for( int v = 0; v < rows; v++ )
+        {
+            copySlots( old, old.offset[ v ], next, size[ v ] );
+            offset[ v ] = next;
+            cap[ v ] = size[ v ];
+            next += size[ v ];
+        }
+        used = next;
+        reserved = next;
+    }
+
+    /**
+     * Build a store for an undirected edge list in one pass: edge i joins
+     * from[ i ] and to[ i ] both ways at cost[ i ]. Rows come out exactly as
+     * adding the edges one at a time would leave them: links in edge order,
+     * and a repeated pair kept at its first position with its last cost.
+     */
+    public static LinkStore undirected( int rows, int[] from, int[] to, double[] cost, int edges )
+    {
+        LinkStore s = new LinkStore( );
+        int slots = Math.max( 64, 2 * edges );
+        s.offset = new int[ Math.max( 16, rows ) ];
+        s.size = new int[ s.offset.length ];
+        s.cap = new int[ s.offset.length ];
+        s.target = new int[ slots ];
+        s.weight = new double[ slots ];
+        s.flags = new byte[ slots ];
+        s.slots = slots;
+        s.rows = rows;
+
+        // Counting sort of the 2 * edges links by tail, stable in edge order
+        for( int i = 0; i < edges; i++ )
+        {
+            s.cap[ from[ i ] ]++;
+            s.cap[ to[ i ] ]++;
+        }
+        for( int v = 0, next = 0; v < rows; v++ )
+        {
+            s.offset[ v ] = next;
+            next += s.cap[ v ];
+        }
+        for( int i = 0; i < edges; i++ )
+        {
+            int e = s.offset[ from[ i ] ] + s.size[ from[ i ] ]++;
+            s.target[ e ] = to[ i ];
+            s.weight[ e ] = cost[ i ];
+            e = s.offset[ to[ i ] ] + s.size[ to[ i ] ]++;
+            s.target[ e ] = from[ i ];
+            s.weight[ e ] = cost[ i ];
+        }
+
+        // Fold repeated pairs into their first slot, which takes the last cost
+        int[] seenRow = new int[ rows ];
+        int[] seenAt = new int[ rows ];
+        Arrays.fill( seenRow, -1 );
+        for( int v = 0; v < rows; v++ )
+        {
+            int keep = s.offset[ v ];
+            for( int e = s.offset[ v ], end = e + s.size[ v ]; e < end; e++ )
+            {
+                int w = s.target[ e ];
+                if( seenRow[ w ] == v )
+                {
+                    s.weight[ seenAt[ w ] ] = s.weight[ e ];
+                    continue;
+                }
+                seenRow[ w ] = v;
+                seenAt[ w ] = keep;
+                s.target[ keep ] = w;
+                s.weight[ keep++ ] = s.weight[ e ];
+            }
+            s.size[ v ] = keep - s.offset[ v ];
+            s.live += s.size[ v ];
+        }
+        s.used = 2 * edges;
+        s.reserved = s.used;
+        return s;
+    }
+
+    /**
+     * Write the store to a snapshot in compact form: int link count, int[]
+     * row offsets (rows + 1 of them), int[] targets, then after padding to
+     * 8 bytes double[] weights and byte[] flags, padded again.
+     */
+    public void write( DataOutputStream out ) throws IOException
+    {
+        out.writeInt( live );
+        for( int v = 0, next = 0; v <= rows; v++ )
+        {
+            out.writeInt( next );
+            if( v < rows )
+                next += size[ v ];
+        }
+        for( int v = 0; v < rows; v++ )
+            for( int e = offset[ v ], end = e + size[ v ]; e < end; e++ )
+                out.writeInt( target( e ) );
+        Snapshot.pad( out );
+        for( int v = 0; v < rows; v++ )
+            for( int e = offset[ v ], end = e + size[ v ]; e < end; e++ )
+                out.writeDouble( weight( e ) );
+        for( int v = 0; v < rows; v++ )
+            for( int e = offset[ v ], end = e + size[ v ]; e < end; e++ )
+                out.write( flag( e ) );
+        Snapshot.pad( out );
+    }
+
+    /**
+     * Read a store of the given number of rows written by write( ), copying
+     * each section out of the buffer in bulk, onto the heap or off it. The
+     * buffer is left just past it.
+     */
+    public static LinkStore read( ByteBuffer in, int rows, boolean offHeap )
+    {
+        LinkStore s = new LinkStore( );
+        int links = in.getInt( );
+        int[] offsets = Snapshot.ints( in, rows + 1 );
+        s.offset = Arrays.copyOf( offsets, Math.max( 16, rows ) );
+        s.size = new int[ s.offset.length ];
+        s.cap = new int[ s.offset.length ];
+        for( int v = 0; v < rows; v++ )
+            s.size[ v ] = s.cap[ v ] = offsets[ v + 1 ] - offsets[ v ];
+        s.allocate( Math.max( 64, links ), offHeap );
+        if( offHeap )
+        {
+            s.directTarget.put( 0, in.slice( ).asIntBuffer( ), 0, links );
+            in.position( in.position( ) + 4 * links );
+            Snapshot.align( in );
+            s.directWeight.put( 0, in.slice( ).asDoubleBuffer( ), 0, links );
+            in.position( in.position( ) + 8 * links );
+            s.directFlags.put( 0, in, in.position( ), links );
+            in.position( in.position( ) + links );
+        }
+        else
+        {
+            System.arraycopy( Snapshot.ints( in, links ), 0, s.target, 0, links );
+            Snapshot.align( in );
+            System.arraycopy( Snapshot.doubles( in, links ), 0, s.weight, 0, links );
+            in.get( s.flags, 0, links );
+        }
+        Snapshot.align( in );
+        s.rows = rows;
+        s.live = links;
+        s.used = links;
+        s.reserved = links;
+        return s;
+    }
+
+    /**
+     * Return an independent copy of this store, on the heap or off it as
+     * this one is.
+     */
+    public LinkStore copy( )
+    {
+        LinkStore s = new LinkStore( );
+        s.offset = offset.clone( );
+        s.size = size.clone( );
+        s.cap = cap.clone( );
+        s.allocate( slots, isOffHeap( ) );
+        s.copySlots( this, 0, 0, used );
+        s.rows = rows;
+        s.used = used;
+        s.live = live;
+        s.reserved = reserved;
+        return s;
+    }
+
+    /**
+     * Give row v twice its capacity by moving it to the end of the arrays.
+     */
+    private void grow( int v )
+    {
+        int newCap = Math.max( 4, cap[ v ] * 2 );
+        if( used + newCap > slots )
+        {
+            // Reclaim the holes first if they are worth it
+            if( used - reserved > live )
+                compact( );
+            if( used + newCap > slots )
+            {
+                LinkStore old = slotsOf( );
+                allocate( Math.max( slots * 2, used + newCap ), isOffHeap( ) );
+                copySlots( old, 0, 0, used );
+            }
+        }
+        copySlots( this, offset[ v ], used, size[ v ] );
+        reserved += newCap - cap[ v ];
+        offset[ v ] = used;
+        cap[ v ] = newCap;
+        used += newCap;
+    }
+
+    private byte flag( int e )
+      { return flags != null ? flags[ e ] : directFlags.get( e ); }
+
+    private void setWeight( int e, double cost )
+    {
+        if( weight != null )
+            weight[ e ] = cost;
+        else
+            directWeight.put( e, cost );
+    }
+
+    private void setFlag( int e, byte flag )
+    {
+        if( flags != null )
+            flags[ e ] = flag;
+        else
+            directFlags.put( e, flag );
+    }
+
+    private void setSlot( int e, int w, double cost, byte flag )
+    {
+        if( target != null )
+            target[ e ] = w;
+        else
+            directTarget.put( e, w );
+        setWeight( e, cost );
+        setFlag( e, flag );
+    }
+
+    /**
+     * Give the store fresh, empty slots of the given length, on the heap
+     * or off it.
+     */
+    private void allocate( int length, boolean offHeap )
+    {
+        target = null;
+        weight = null;
+        flags = null;
+        directTarget = null;
+        directWeight = null;
+        directFlags = null;
+        if( offHeap )
+        {
+            directTarget = ByteBuffer.allocateDirect( 4 * length ).order( ByteOrder.nativeOrder( ) ).asIntBuffer( );
+            directWeight = ByteBuffer.allocateDirect( 8 * length ).order( ByteOrder.nativeOrder( ) ).asDoubleBuffer( );
+            directFlags = ByteBuffer.allocateDirect( length );
+        }
+        else
+        {
+            target = new int[ length ];
+            weight = new double[ length ];
+            flags = new byte[ length ];
+        }
+        slots = length;
+    }
+
+    /**
+     * Return a store holding just this one's slots and row offsets, to copy
+     * from once this one has new slots.
+     */
+    private LinkStore slotsOf( )
+    {
+        LinkStore s = new LinkStore( );
+        s.offset = offset;
+        s.target = target;
+        s.weight = weight;
+        s.flags = flags;
+        s.directTarget = directTarget;
+        s.directWeight = directWeight;
+        s.directFlags = directFlags;
+        s.slots = slots;
+        return s;
+    }
+
+    /**
+     * Copy count slots of from, starting at slot src, to this store's slots
+     * starting at dst. The two may be the same store and overlap.
+     */
+    private void copySlots( LinkStore from, int src, int dst, int count )
+    {
+        if( target != null && from.target != null )
+        {
+            System.arraycopy( from.target, src, target, dst, count );
+            System.arraycopy( from.weight, src, weight, dst, count );
+            System.arraycopy( from.flags, src, flags, dst, count );
+        }
+        else if( target == null && from.target == null )
+        {
+            directTarget.put( dst, from.directTarget, src, count );
+            directWeight.put( dst, from.directWeight, src, count );
+            directFlags.put( dst, from.directFlags, src, count );
+        }
+        else
+            for( int i = 0; i < count; i++ )
+                setSlot( dst + i, from.target( src + i ), from.weight( src + i ), from.flag( src + i ) );
+    }
+}
+
+// Reachability over the up part of a graph: strongly connected components
+// (Tarjan's algorithm), condensed into a DAG whose transitive closure is kept
+// as one word-packed bitset row per component. Tarjan emits components sinks
+// first, so each row is finished by OR-ing in the rows of its successors.
+// Built once per topology; after that canReach( ) is two lookups and a bit test.
+// The closure takes C^2/64 words for C components, so past LIMIT components
+// only the DAG's links are kept, and canReach( ) searches it from the source
+// component, keeping what the last source reaches for the next question.
+class Reachability
+{
+    public static final int LIMIT = 8192;   // Most components kept in the closure (8 MB)
+    private final int[]    comp;      // Component of each vertex, -1 if down
+    private final long[][] closure;   // closure[ c ] has bit d set if c reaches d != c; null past LIMIT
+    private int[] succStart;          // DAG links of component c are succ[ succStart[ c ] .. succStart[ c + 1 ] )
+    private int[] succ;
+    private int[] mark;               // Components reached from source are marked with source
+    private int source = -1;          // Component last searched from, -1 if none
+    private int components;
+
+    public Reachability( LinkStore links, BitSet down, int n )
+    {
+        comp = new int[ n ];
+        Arrays.fill( comp, -1 );
+        int[] index = new int[ n ];        // Visit order + 1, 0 if unvisited
+        int[] low = new int[ n ];
+        int[] stack = new int[ n ];        // Tarjan's vertex stack
+        int[] path = new int[ n ];         // DFS path, replacing recursion
+        int[] next = new int[ n ];         // Next link slot to scan on each path vertex
+        int[] order = new int[ n ];        // Vertices in component emission order
+        int[] compStart = new int[ n + 1 ];
+        int visited = 0, sp = 0, emitted = 0;
+
+        for( int root = 0; root < n; root++ )
+        {
+            if( index[ root ] != 0 || down.get( root ) )
+                continue;
+            int depth = 0;
+            path[ depth++ ] = root;
+            index[ root ] = low[ root ] = ++visited;
+            stack[ sp++ ] = root;
+            next[ root ] = links.begin( root );
+            while( depth > 0 )
+            {
+                int v = path[ depth - 1 ];
+                if( next[ v ] < links.end( v ) )
+                {
+                    int e = next[ v ]++;
+                    int w = links.target( e );
+                    if( links.isDown( e ) || down.get( w ) )
+                        continue;
+                    if( index[ w ] == 0 )
+                    {
+                        index[ w ] = low[ w ] = ++visited;
+                        stack[ sp++ ] = w;
+                        next[ w ] = links.begin( w );
+                        path[ depth++ ] = w;
+                    }
+                    else if( comp[ w ] < 0 )
+                        low[ v ] = Math.min( low[ v ], index[ w ] );
+                    continue;
+                }
+                depth--;
+                if( depth > 0 )
+                    low[ path[ depth - 1 ] ] = Math.min( low[ path[ depth - 1 ] ], low[ v ] );
+                if( low[ v ] == index[ v ] )
+                {
+                    // v roots a component: pop it off the stack
+                    compStart[ components ] = emitted;
+                    int w;
+                    do
+                    {
+                        w = stack[ --sp ];
+                        comp[ w ] = components;
+                        order[ emitted++ ] = w;
+                    } while( w != v );
+                    components++;
+                }
+            }
+        }
+        compStart[ components ] = emitted;
+
+        int[] seen = new int[ components ];
+        Arrays.fill( seen, -1 );
+        if( components > LIMIT )
+        {
+            closure = null;
+            condense( links, order, compStart, seen );
+            return;
+        }
+
+        // Successors are emitted before their predecessors
+        int words = ( components + 63 ) >>> 6;
+        closure = new long[ components ][ words ];
+        for( int c = 0; c < components; c++ )
+        {
+            long[] row = closure[ c ];
+            for( int i = compStart[ c ]; i < compStart[ c + 1 ]; i++ )
+            {
+                int v = order[ i ];
+                for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+                {
+                    int d = comp[ links.target( e ) ];
+                    if( d < 0 || d == c || links.isDown( e ) || seen[ d ] == c )
+                        continue;
+                    seen[ d ] = c;
+                    row[ d >>> 6 ] |= 1L << d;
+                    long[] succ = closure[ d ];
+                    for( int k = 0; k < words; k++ )
+                        row[ k ] |= succ[ k ];
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep the links between components, each once, in place of the closure.
+     */
+    private void condense( LinkStore links, int[] order, int[] compStart, int[] seen )
+    {
+        succStart = new int[ components + 1 ];
+        int[] to = new int[ 16 ];
+        int count = 0;
+        for( int c = 0; c < components; c++ )
+        {
+            succStart[ c ] = count;
+            for( int i = compStart[ c ]; i < compStart[ c + 1 ]; i++ )
+            {
+                int v = order[ i ];
+                for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+                {
+                    int d = comp[ links.target( e ) ];
+                    if( d < 0 || d == c || links.isDown( e ) || seen[ d ] == c )
+                        continue;
+                    seen[ d ] = c;
+                    if( count == to.length )
+                        to = Arrays.copyOf( to, count * 2 );
+                    to[ count++ ] = d;
+                }
+            }
+        }
+        succStart[ components ] = count;
+        succ = Arrays.copyOf( to, count );
+        mark = new int[ components ];
+        Arrays.fill( mark, -1 );
+    }
+
+    public int components( )
+      { return components; }
+
+    /**
+     * True if some path of up links and up vertices leads from v to w != v.
+     * A vertex is taken to reach itself when it is up.
+     */
+    public boolean canReach( int v, int w )
+    {
+        int c = comp[ v ], d = comp[ w ];
+        if( c < 0 || d < 0 )
+            return false;
+        if( c == d )
+            return true;
+        if( closure != null )
+            return ( closure[ c ][ d >>> 6 ] & 1L << d ) != 0;
+        if( c != source )
+            search( c );
+        return mark[ d ] == c;
+    }
+
+    /**
+     * Mark every component c reaches, by depth-first search of the DAG.
+     */
+    private void search( int c )
+    {
+        int[] stack = new int[ components ];
+        int sp = 0;
+        mark[ c ] = c;
+        stack[ sp++ ] = c;
+        while( sp > 0 )
+        {
+            int x = stack[ --sp ];
+            for( int i = succStart[ x ]; i < succStart[ x + 1 ]; i++ )
+            {
+                int d = succ[ i ];
+                if( mark[ d ] != c )
+                {
+                    mark[ d ] = c;
+                    stack[ sp++ ] = d;
+                }
+            }
+        }
+        source = c;
+    }
+}
+
+// Landmark distances for ALT: for each of a few routers L, the distances
+// from L to every router and from every router to L. By the triangle
+// inequality they bound any distance from below:
+//   d( v, t ) >= d( L, t ) - d( L, v )   and   d( v, t ) >= d( v, L ) - d( t, L )
+// These bounds stay valid, and consistent, while links only get dearer or
+// go down, so Graph marks landmarks stale only when a link gets cheaper or a
+// link or router comes back, and they are recomputed at the next ALT query.
+class Landmarks
+{
+    final int        routers;   // Routers when computed
+    final int[]      ids;
+    final double[][] from;      // from[ i ][ v ] = d( ids[ i ], v )
+    final double[][] to;        // to[ i ][ v ] = d( v, ids[ i ] )
+
+    Landmarks( int routers, int[] ids, double[][] from, double[][] to )
+    {
+        this.routers = routers;
+        this.ids = ids;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Lower bound on the distance from v to t; INFINITY if v cannot reach t.
+     * A landmark that cannot say anything about the pair is passed over.
+     */
+    double bound( int v, int t )
+    {
+        double best = 0;
+        for( int i = 0; i < ids.length; i++ )
+        {
+            double lv = from[ i ][ v ], lt = from[ i ][ t ];
+            if( lv != Graph.INFINITY )
+            {
+                if( lt == Graph.INFINITY )
+                    return Graph.INFINITY;      // L reaches v but not t
+                best = Math.max( best, lt - lv );
+            }
+            double vl = to[ i ][ v ], tl = to[ i ][ t ];
+            if( tl != Graph.INFINITY )
+            {
+                if( vl == Graph.INFINITY )
+                    return Graph.INFINITY;      // t reaches L but v does not
+                best = Math.max( best, vl - tl );
+            }
+        }
+        return best;
+    }
+}
+
+// Point-to-point shortest paths that stop once the destination is settled,
+// over the same links and up/down state as ospf:
+//   DIJKSTRA  one search from the start, stopped at the destination
+//   BIDIR     a forward search over out-links from the start and a backward
+//             one over in-links from the destination, each step taken on
+//             the side with the smaller key, stopped once the two smallest
+//             keys add up to no less than the best meeting found
+//   ALT       A* from the start, keyed by distance plus the landmark bound
+// Per-vertex state carries the number of the query that set it, so nothing
+// is cleared between queries and a query costs only what it touches.
+class PointToPoint
+{
+    public static final int DIJKSTRA = 0, BIDIR = 1, ALT = 2;
+    public static final String[] METHODS = { "dijkstra", "bidir", "alt" };
+
+    private LinkStore out, in;
+    private BitSet down;
+    private int query;
+    private int[][]    stamp = { new int[ 0 ], new int[ 0 ] };   // Forward, backward
+    private double[][] dist = { new double[ 0 ], new double[ 0 ] };
+    private int[][]    prev = { new int[ 0 ], new int[ 0 ] };    // Backward: next hop
+    private double[][] key = { new double[ 0 ], new double[ 0 ] };
+    private final IndexedHeap[] heap = { new IndexedHeap( 4 ), new IndexedHeap( 4 ) };
+    private int settled;
+    private int meet;
+
+    /**
+     * Search from s to t in a graph of n routers; returns the distance,
+     * INFINITY if t is unreachable. marks is only used by ALT.
+     */
+    public double search( LinkStore out, LinkStore in, BitSet down, int n, int s, int t,
+                          int method, Landmarks marks )
+    {
+        this.out = out;
+        this.in = in;
+        this.down = down;
+        prepare( n );
+        settled = 0;
+        meet = -1;
+        if( down.get( s ) || down.get( t ) )
+            return Graph.INFINITY;
+        if( method == BIDIR )
+            return bidirectional( s, t ) == Graph.INFINITY ? Graph.INFINITY : along( path( ) );
+        return forward( s, t, method == ALT ? marks : null );
+    }
+
+    /**
+     * Cost of a path summed from its start, in the same order ospf adds it
+     * up; the two halves of a bidirectional search can differ in the last bit.
+     */
+    private double along( int[] path )
+    {
+        double cost = 0;
+        for( int i = 1; i < path.length; i++ )
+            cost += out.weight( out.find( path[ i - 1 ], path[ i ] ) );
+        return cost;
+    }
+
+    /**
+     * Vertices taken off a queue by the last search.
+     */
+    public int settled( )
+      { return settled; }
+
+    /**
+     * Path found by the last search, start first; null if none.
+     */
+    public int[] path( )
+    {
+        if( meet < 0 )
+            return null;
+        int length = 0;
+        for( int v = meet; v >= 0; v = prev[ 0 ][ v ] )
+            length++;
+        for( int v = prev[ 1 ][ meet ]; v >= 0; v = prev[ 1 ][ v ] )
+            length++;
+        int[] path = new int[ length ];
+        int i = 0;
+        for( int v = meet; v >= 0; v = prev[ 0 ][ v ] )
+            path[ i++ ] = v;
+        for( int a = 0, b = i - 1; a < b; a++, b-- )
+        {
+            int swap = path[ a ];
+            path[ a ] = path[ b ];
+            path[ b ] = swap;
+        }
+        for( int v = prev[ 1 ][ meet ]; v >= 0; v = prev[ 1 ][ v ] )
+            path[ i++ ] = v;
+        return path;
+    }
+
+    /**
+     * Pick k landmarks, each as far as possible from those already picked,
+     * and compute their distances both ways.
+     */
+    public Landmarks landmarks( LinkStore out, LinkStore in, BitSet down, int n, int k )
+    {
+        this.out = out;
+        this.in = in;
+        this.down = down;
+        int[] ids = new int[ k ];
+        double[][] from = new double[ k ][];
+        double[][] to = new double[ k ][];
+        double[] spread = new double[ n ];        // Sum of distances from the picked landmarks
+        int count = 0;
+        int next = down.nextClearBit( 0 );
+        while( count < k && next < n )
+        {
+            ids[ count ] = next;
+            from[ count ] = full( 0, next, n );
+            to[ count ] = full( 1, next, n );
+            next = -1;
+            for( int v = 0; v < n; v++ )
+            {
+                double d = from[ count ][ v ];
+                spread[ v ] = d == Graph.INFINITY || spread[ v ] < 0 ? -1 : spread[ v ] + d;
+                if( spread[ v ] > 0 && ( next < 0 || spread[ v ] > spread[ next ] ) )
+                    next = v;
+            }
+            count++;
+            if( next < 0 )
+                break;
+        }
+        return new Landmarks( n, Arrays.copyOf( ids, count ), Arrays.copyOf( from, count ),
+                              Arrays.copyOf( to, count ) );
+    }
+
+    private void prepare( int n )
+    {
+        if( stamp[ 0 ].length < n )
+            for( int dir = 0; dir < 2; dir++ )
+            {
+                int length = Math.max( n, stamp[ dir ].length * 2 );
+                stamp[ dir ] = new int[ length ];
+                dist[ dir ] = new double[ length ];
+                prev[ dir ] = new int[ length ];
+                key[ dir ] = new double[ length ];
+            }
+        if( ++query == 0 )
+        {
+            Arrays.fill( stamp[ 0 ], 0 );
+            Arrays.fill( stamp[ 1 ], 0 );
+            query = 1;
+        }
+        heap[ 0 ].reset( key[ 0 ], n );
+        heap[ 1 ].reset( key[ 1 ], n );
+    }
+
+    private double distance( int dir, int v )
+      { return stamp[ dir ][ v ] == query ? dist[ dir ][ v ] : Graph.INFINITY; }
+
+    private void reach( int dir, int v, double d, int from, double k )
+    {
+        stamp[ dir ][ v ] = query;
+        dist[ dir ][ v ] = d;
+        prev[ dir ][ v ] = from;
+        key[ dir ][ v ] = k;
+        heap[ dir ].update( v );
+    }
+
+    /**
+     * Links of v in the search's direction: out-links forward, in-links
+     * backward. The link is usable if it is up and leads to an up router.
+     */
+    private LinkStore side( int dir )
+      { return dir == 0 ? out : in; }
+
+    private double forward( int s, int t, Landmarks marks )
+    {
+        reach( 0, s, 0, -1, 0 );
+        while( !heap[ 0 ].isEmpty( ) )
+        {
+            int v = heap[ 0 ].poll( );
+            settled++;
+            if( v == t )
+            {
+                meet = t;
+                prev[ 1 ][ t ] = -1;
+                return dist[ 0 ][ t ];
+            }
+            for( int e = out.begin( v ), end = out.end( v ); e < end; e++ )
+            {
+                int w = out.target( e );
+                if( out.isDown( e ) || down.get( w ) )
+                    continue;
+                double d = dist[ 0 ][ v ] + out.weight( e );
+                if( d < distance( 0, w ) )
+                {
+                    double bound = marks == null ? 0 : marks.bound( w, t );
+                    if( bound != Graph.INFINITY )
+                        reach( 0, w, d, v, d + bound );
+                }
+            }
+        }
+        return Graph.INFINITY;
+    }
+
+    private double bidirectional( int s, int t )
+    {
+        reach( 0, s, 0, -1, 0 );
+        reach( 1, t, 0, -1, 0 );
+        double best = s == t ? 0 : Graph.INFINITY;
+        meet = s == t ? s : -1;
+        while( !heap[ 0 ].isEmpty( ) && !heap[ 1 ].isEmpty( ) )
+        {
+            int top0 = heap[ 0 ].peek( ), top1 = heap[ 1 ].peek( );
+            if( key[ 0 ][ top0 ] + key[ 1 ][ top1 ] >= best )
+                break;
+            int dir = key[ 0 ][ top0 ] <= key[ 1 ][ top1 ] ? 0 : 1;
+            int v = heap[ dir ].poll( );
+            settled++;
+            LinkStore links = side( dir );
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+            {
+                int w = links.target( e );
+                if( links.isDown( e ) || down.get( w ) )
+                    continue;
+                double d = dist[ dir ][ v ] + links.weight( e );
+                if( d < distance( dir, w ) )
+                    reach( dir, w, d, v, d );
+                double through = d + distance( 1 - dir, w );
+                if( through < best )
+                {
+                    best = through;
+                    meet = w;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distances from source to every router (dir 0), or from every router
+     * to source (dir 1).
+     */
+    private double[] full( int dir, int source, int n )
+    {
+        prepare( n );
+        LinkStore links = side( dir );
+        double[] result = new double[ n ];
+        Arrays.fill( result, Graph.INFINITY );
+        reach( dir, source, 0, -1, 0 );
+        while( !heap[ dir ].isEmpty( ) )
+        {
+            int v = heap[ dir ].poll( );
+            result[ v ] = dist[ dir ][ v ];
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+            {
+                int w = links.target( e );
+                if( links.isDown( e ) || down.get( w ) )
+                    continue;
+                double d = dist[ dir ][ v ] + links.weight( e );
+                if( d < distance( dir, w ) )
+                    reach( dir, w, d, v, d );
+            }
+        }
+        return result;
+    }
+}
+
+// Parallel delta-stepping SSSP (Meyer and Sanders) on a fork-join pool.
+// Tentative distances fall in buckets delta wide, and the lowest nonempty
+// bucket is settled in phases: its vertices relax their light links (cost
+// at most delta) in parallel, and any that land back in the bucket go
+// again, until it stays empty. Then every vertex it held relaxes its heavy
+// links once, which can only reach later buckets. Distances are kept as the
+// raw bits of non-negative doubles, which sort as the doubles do, so a
+// relaxation is a compare-and-set loop keeping the lower, with no locks.
+// Each thread appends the vertices it improves to bins of its own, kept in
+// a fixed slot per pool worker (by its pool index) and one for the thread
+// calling run, and merged between phases, dropping entries a later
+// improvement made stale. Every distance comes out the least of the same
+// sums dist[ v ] + cost that Dijkstra's algorithm takes the least of, so
+// they match it exactly. Predecessors are picked once distances are final,
+// from the in-links giving that sum, by the tie rule every SPF uses
+// (Graph.nearer): the one nearest the source, then the lowest id. So the
+// tree is ospf's, and ties never depend on thread timing; only a router
+// reached solely over zero-cost links from others at its own distance may
+// get a different one of those.
+class DeltaStepping
+{
+    private static final VarHandle BITS = MethodHandles.arrayElementVarHandle( long[].class );
+    private static final long UNREACHED = Double.doubleToRawLongBits( Graph.INFINITY );
+    private static final int GRAIN = 256;        // Vertices per task
+    private static final int LIGHT = 0, HEAVY = 1;
+
+    public final int threads;
+    private final ForkJoinPool pool;
+    private volatile Bins[] bins;                // The caller's, then one per pool index
+    private final AtomicLong ties = new AtomicLong( );        // Reached only through zero-cost links
+
+    private LinkStore out, in;
+    private BitSet down;
+    private int source;
+    private double width;
+    private long[] bits = new long[ 0 ];         // Tentative distance of each vertex
+    private int[] frontier = new int[ 0 ];       // Vertices of the current phase
+    private int[] held = new int[ 0 ];           // Every vertex settled in the current bucket
+    private int[] mark = new int[ 0 ];           // Phase a vertex last joined the frontier
+    private int[] heldIn = new int[ 0 ];         // Bucket a vertex was last held in, + 1
+    private int frontierSize, heldSize, phase;
+
+    public double delta;                         // Width used by the last run
+    public long phases;                          // Light phases in the last run
+    public long buckets;                         // Buckets settled in the last run
+
+    // Vertices improved by one thread, by bucket, and what it has counted
+    private static final class Bins
+    {
+        int[][] items = new int[ 0 ][];
+        int[] size = new int[ 0 ];
+        int from;                                // No bucket below this is nonempty
+        long settled, relaxed, pushes, skipped;
+
+        void add( int b, int v )
+        {
+            if( b >= size.length )
+            {
+                int length = Math.max( b + 1, size.length * 2 );
+                items = Arrays.copyOf( items, length );
+                size = Arrays.copyOf( size, length );
+            }
+            if( items[ b ] == null )
+                items[ b ] = new int[ 16 ];
+            else if( size[ b ] == items[ b ].length )
+                items[ b ] = Arrays.copyOf( items[ b ], 2 * size[ b ] );
+            items[ b ][ size[ b ]++ ] = v;
+            from = Math.min( from, b );
+            pushes++;
+        }
+    }
+
+    public DeltaStepping( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+        pool = new ForkJoinPool( this.threads );
+        int slots = 1;                           // The pool numbers its workers below this
+        while( slots < this.threads )
+            slots *= 2;
+        bins = new Bins[ slots + 1 ];
+        for( int i = 0; i < bins.length; i++ )
+            bins[ i ] = new Bins( );
+    }
+
+    /**
+     * The bins of this thread: slot 0 for the thread calling run (whether
+     * it relaxes a small phase itself or the pool has it run a task),
+     * otherwise the slot of the worker's pool index.
+     */
+    private Bins local( )
+    {
+        Thread t = Thread.currentThread( );
+        if( !( t instanceof ForkJoinWorkerThread ) || ( (ForkJoinWorkerThread) t ).getPool( ) != pool )
+            return bins[ 0 ];
+        int i = ( (ForkJoinWorkerThread) t ).getPoolIndex( ) + 1;
+        Bins[] all = bins;
+        return i < all.length ? all[ i ] : spare( i );
+    }
+
+    /**
+     * The bins of pool index i - 1, past the slots made at the start: a
+     * spare worker the pool added while others waited on a join. Indices
+     * are reused as workers come and go, so the slots stay bounded by
+     * the pool's size.
+     */
+    private synchronized Bins spare( int i )
+    {
+        if( i >= bins.length )
+        {
+            Bins[] all = Arrays.copyOf( bins, Math.max( i + 1, 2 * bins.length ) );
+            for( int k = bins.length; k < all.length; k++ )
+                all[ k ] = new Bins( );
+            bins = all;
+        }
+        return bins[ i ];
+    }
+
+    /**
+     * Shortest paths from source to all n routers, into dist and prev, over
+     * links not down to routers not down; width is delta, or 0 for the mean
+     * link cost. counts gets vertices settled, links relaxed, bin entries
+     * and links skipped as down.
+     */
+    public void run( LinkStore out, LinkStore in, BitSet down, int n, int source, double width,
+                     double[] dist, int[] prev, long[] counts )
+    {
+        this.out = out;
+        this.in = in;
+        this.down = down;
+        this.source = source;
+        this.width = width > 0 ? width : meanCost( out, n );
+        delta = this.width;
+        prepare( n );
+        phases = 0;
+        buckets = 0;
+        for( Bins t : bins )
+        {
+            t.settled = t.relaxed = t.pushes = t.skipped = 0;
+            t.from = 0;
+        }
+
+        bits[ source ] = 0;
+        frontier[ 0 ] = source;
+        frontierSize = 1;
+        for( int b = 0; b >= 0; b = next( b ) )
+        {
+            buckets++;
+            heldSize = 0;
+            while( frontierSize > 0 )
+            {
+                for( int i = 0; i < frontierSize; i++ )
+                {
+                    int v = frontier[ i ];
+                    if( heldIn[ v ] != b + 1 )
+                    {
+                        heldIn[ v ] = b + 1;
+                        held[ heldSize++ ] = v;
+                    }
+                }
+                phase( LIGHT, frontierSize );
+                phases++;
+                collect( b );
+            }
+            phase( HEAVY, heldSize );
+        }
+
+        ties.set( 0 );
+        pool.invoke( new Finish( dist, prev, 0, n ) );
+        if( ties.get( ) > 0 )
+            linkTies( dist, prev, n );
+        counts[ 0 ] = counts[ 1 ] = counts[ 2 ] = counts[ 3 ] = 0;
+        for( Bins t : bins )
+        {
+            counts[ 0 ] += t.settled;
+            counts[ 1 ] += t.relaxed;
+            counts[ 2 ] += t.pushes;
+            counts[ 3 ] += t.skipped;
+        }
+    }
+
+    /**
+     * Stop the pool's threads.
+     */
+    public void shutdown( )
+    {
+        pool.shutdown( );
+    }
+
+    private static double meanCost( LinkStore out, int n )
+    {
+        double total = 0;
+        for( int v = 0; v < n; v++ )
+            for( int e = out.begin( v ), end = out.end( v ); e < end; e++ )
+                total += out.weight( e );
+        return out.links( ) == 0 ? 1 : Math.max( Double.MIN_NORMAL, total / out.links( ) );
+    }
+
+    private void prepare( int n )
+    {
+        if( bits.length < n )
+        {
+            bits = new long[ n ];
+            frontier = new int[ n ];
+            held = new int[ n ];
+            mark = new int[ n ];
+            heldIn = new int[ n ];
+        }
+        Arrays.fill( bits, 0, n, UNREACHED );
+        Arrays.fill( heldIn, 0, n, 0 );
+        Arrays.fill( mark, 0, n, 0 );
+        phase = 0;
+    }
+
+    private double distance( int v )
+      { return Double.longBitsToDouble( (long) BITS.getVolatile( bits, v ) ); }
+
+    private int bucket( double d )
+      { return (int) Math.min( Integer.MAX_VALUE - 1, d / width ); }
+
+    /**
+     * Lower v's distance to d if that is lower; true if it was.
+     */
+    private boolean lower( int v, double d )
+    {
+        long want = Double.doubleToRawLongBits( d );
+        long seen = (long) BITS.getVolatile( bits, v );
+        while( want < seen )
+        {
+            if( BITS.compareAndSet( bits, v, seen, want ) )
+                return true;
+            seen = (long) BITS.getVolatile( bits, v );
+        }
+        return false;
+    }
+
+    /**
+     * Make the frontier every vertex some thread put in bucket b that is
+     * still in it, once each, and empty the bins of b.
+     */
+    private void collect( int b )
+    {
+        phase++;
+        frontierSize = 0;
+        for( Bins t : bins )
+        {
+            if( b >= t.size.length )
+                continue;
+            int[] items = t.items[ b ];
+            for( int i = 0, k = t.size[ b ]; i < k; i++ )
+            {
+                int v = items[ i ];
+                if( mark[ v ] != phase && bucket( distance( v ) ) == b )
+                {
+                    mark[ v ] = phase;
+                    frontier[ frontierSize++ ] = v;
+                }
+            }
+            t.size[ b ] = 0;
+        }
+    }
+
+    /**
+     * Collect the lowest nonempty bucket above b and return it, or -1 if
+     * every bucket is empty.
+     */
+    private int next( int b )
+    {
+        while( true )
+        {
+            int lowest = -1;
+            for( Bins t : bins )
+            {
+                t.from = Math.max( t.from, b + 1 );
+                while( t.from < t.size.length && t.size[ t.from ] == 0 )
+                    t.from++;
+                if( t.from < t.size.length && ( lowest < 0 || t.from < lowest ) )
+                    lowest = t.from;
+            }
+            if( lowest < 0 )
+                return -1;
+            collect( lowest );
+            if( frontierSize > 0 )
+                return lowest;
+            b = lowest;         // Held only stale entries
+        }
+    }
+
+    /**
+     * Relax the light links of the frontier or the heavy links of the held
+     * vertices, on this thread if there are too few to be worth sharing.
+     */
+    private void phase( int kind, int size )
+    {
+        if( size > GRAIN )
+        {
+            pool.invoke( new Phase( kind, 0, size ) );
+            return;
+        }
+        Bins t = local( );
+        int[] vertices = kind == LIGHT ? frontier : held;
+        for( int i = 0; i < size; i++ )
+            relax( t, vertices[ i ], kind );
+    }
+
+    private void relax( Bins t, int v, int kind )
+    {
+        double d = distance( v );
+        if( kind == HEAVY )
+            t.settled++;
+        for( int e = out.begin( v ), end = out.end( v ); e < end; e++ )
+        {
+            double cost = out.weight( e );
+            if( ( cost > width ) != ( kind == HEAVY ) )
+                continue;
+            int w = out.target( e );
+            if( down.get( w ) || out.isDown( e ) )
+            {
+                t.skipped++;
+                continue;
+            }
+            t.relaxed++;
+            double nd = d + cost;
+            if( lower( w, nd ) )
+                t.add( bucket( nd ), w );
+        }
+    }
+
+    // Relax the light or heavy links of a range of the frontier or held vertices
+    private class Phase extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int kind, lo, hi;
+
+        Phase( int kind, int lo, int hi )
+          { this.kind = kind; this.lo = lo; this.hi = hi; }
+
+        @Override
+        protected void compute( )
+        {
+            if( hi - lo > GRAIN )
+            {
+                int mid = ( lo + hi ) >>> 1;
+                invokeAll( new Phase( kind, lo, mid ), new Phase( kind, mid, hi ) );
+                return;
+            }
+            Bins t = local( );
+            int[] vertices = kind == LIGHT ? frontier : held;
+            for( int i = lo; i < hi; i++ )
+                relax( t, vertices[ i ], kind );
+        }
+    }
+
+    // Copy out a range of distances and pick each vertex's predecessor
+    private class Finish extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] dist;
+        private final int[] prev;
+        private final int lo, hi;
+
+        Finish( double[] dist, int[] prev, int lo, int hi )
+          { this.dist = dist; this.prev = prev; this.lo = lo; this.hi = hi; }
+
+        @Override
+        protected void compute( )
+        {
+            if( hi - lo > 8 * GRAIN )
+            {
+                int mid = ( lo + hi ) >>> 1;
+                invokeAll( new Finish( dist, prev, lo, mid ), new Finish( dist, prev, mid, hi ) );
+                return;
+            }
+            for( int w = lo; w < hi; w++ )
+            {
+                double d = Double.longBitsToDouble( bits[ w ] );
+                dist[ w ] = d;
+                prev[ w ] = -1;
+                if( w == source || d == Graph.INFINITY )
+                    continue;
+                double best = d;
+                for( int e = in.begin( w ), end = in.end( w ); e < end; e++ )
+                {
+                    int v = in.target( e );
+                    if( ( down.get( v ) && v != source ) || in.isDown( e ) )
+                        continue;
+                    double dv = Double.longBitsToDouble( bits[ v ] );
+                    if( ( dv < best || dv == best && v < prev[ w ] ) && dv + in.weight( e ) == d )
+                    {
+                        best = dv;
+                        prev[ w ] = v;
+                    }
+                }
+                if( prev[ w ] < 0 )
+                    ties.incrementAndGet( );
+            }
+        }
+    }
+
+    /**
+     * Give a predecessor to the vertices reached only over zero-cost links
+     * from others at the same distance, working out from those that have one.
+     */
+    private void linkTies( double[] dist, int[] prev, int n )
+    {
+        for( boolean more = true; more; )
+        {
+            more = false;
+            for( int w = 0; w < n; w++ )
+            {
+                if( w == source || prev[ w ] >= 0 || dist[ w ] == Graph.INFINITY )
+                    continue;
+                for( int e = in.begin( w ), end = in.end( w ); e < end; e++ )
+                {
+                    int v = in.target( e );
+                    if( ( down.get( v ) && v != source ) || in.isDown( e ) || ( v != source && prev[ v ] < 0 ) )
+                        continue;
+                    if( dist[ v ] + in.weight( e ) == dist[ w ] )
+                    {
+                        prev[ w ] = v;
+                        more = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
+
+// OSPF areas. Every router is in one area, the backbone (0) unless put in
+// another, and one with a link to or from a router of another area is an
+// area border router (ABR) of its area. SPF runs within one area at a time:
+// over the links between the area's own routers or, for the backbone, over
+// the links between backbone routers and every link between areas, which
+// brings the ABRs into the backbone as well. A path between two routers of
+// one area stays inside it where it can, as OSPF prefers intra-area routes.
+// Any other leaves the start's area at one of its ABRs (or starts on the
+// backbone), crosses the backbone to an ABR of the destination's area, and
+// goes down to the destination, taking the cheapest such combination; an
+// ABR's tree over its own area is the summary it advertises. Trees are
+// cached by area and tagged with their area's epoch, bumped only by changes
+// inside that area, so a change in one area leaves every other area's
+// trees, and the summaries built from them, as they were.
+class Areas
+{
+    public static final int BACKBONE = 0;
+    private static final int CAPACITY = 256;     // Trees kept, over all areas
+
+    private int[] area = new int[ 16 ];          // Area id of each router
+    private int routers;
+    private int outside;                         // Routers not in the backbone area
+    private boolean stale = true;                // Layout needs rebuilding
+
+    // Layout: areas by index, index 0 the backbone
+    private int[] ids = new int[ 0 ];            // Area id of each index
+    private Map<Integer,Integer> index = new HashMap<Integer,Integer>( );
+    private int[][] members = new int[ 0 ][];    // Routers of each index; the backbone's include ABRs
+    private int[][] borders = new int[ 0 ][];    // ABRs of each index, none for the backbone
+    private int[] homeSlot = new int[ 0 ];       // Place of each router among its area's members
+    private int[] backboneSlot = new int[ 0 ];   // Place among the backbone's members, or -1
+    private long[] epoch = new long[ 0 ];        // Of each index
+    private long[] runs = new long[ 0 ];         // SPF runs in each index since the layout was built
+
+    private final IndexedHeap heap = new IndexedHeap( 4 );
+    private final Map<Long,Tree> trees =         // Recently used trees, least recent first
+        new LinkedHashMap<Long,Tree>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Long,Tree> eldest )
+              { return size( ) > CAPACITY; }
+        };
+
+    // Shortest path tree within one area, by member slot; prev holds router ids
+    private static final class Tree
+    {
+        final long epoch;
+        final double[] dist;
+        final int[] prev;
+
+        Tree( long epoch, int size )
+        {
+            this.epoch = epoch;
+            dist = new double[ size ];
+            prev = new int[ size ];
+        }
+    }
+
+    /**
+     * Make room for routers up to n, which join the backbone.
+     */
+    public void grow( int n )
+    {
+        if( n > area.length )
+            area = Arrays.copyOf( area, Math.max( n, 2 * area.length ) );
+        routers = Math.max( routers, n );
+        stale = true;
+    }
+
+    /**
+     * Put every one of n routers back in the backbone.
+     */
+    public void reset( int n )
+    {
+        area = new int[ Math.max( 16, n ) ];
+        routers = n;
+        outside = 0;
+        stale = true;
+    }
+
+    public int area( int v )
+      { return area[ v ]; }
+
+    /**
+     * True once some router is outside the backbone.
+     */
+    public boolean active( )
+      { return outside > 0; }
+
+    public void setArea( int v, int id )
+    {
+        if( id < 0 )
+            throw new IllegalArgumentException( "Area ids are not negative" );
+        outside += ( id != BACKBONE ? 1 : 0 ) - ( area[ v ] != BACKBONE ? 1 : 0 );
+        area[ v ] = id;
+        stale = true;
+    }
+
+    /**
+     * Note that link v -> w was added, removed, reweighed, or went up or
+     * down: a change in the area of both ends, or in the backbone for a
+     * link between areas, which may also make or unmake ABRs.
+     */
+    public void linkChanged( LinkStore out, LinkStore in, int v, int w )
+    {
+        if( stale )
+            return;
+        if( area[ v ] == area[ w ] )
+            epoch[ index.get( area[ v ] ) ]++;
+        else if( border( out, in, v ) != ( backboneSlot[ v ] >= 0 ) || border( out, in, w ) != ( backboneSlot[ w ] >= 0 ) )
+            stale = true;
+        else
+            epoch[ BACKBONE ]++;
+    }
+
+    /**
+     * Note that router v went up or down.
+     */
+    public void vertexChanged( int v )
+    {
+        if( stale )
+            return;
+        epoch[ index.get( area[ v ] ) ]++;
+        if( backboneSlot[ v ] >= 0 )
+            epoch[ BACKBONE ]++;
+    }
+
+    /**
+     * True if v is in the backbone area or has a link to or from another area.
+     */
+    private boolean border( LinkStore out, LinkStore in, int v )
+    {
+        if( area[ v ] == BACKBONE )
+            return true;
+        for( int e = out.begin( v ), end = out.end( v ); e < end; e++ )
+            if( area[ out.target( e ) ] != area[ v ] )
+                return true;
+        for( int e = in.begin( v ), end = in.end( v ); e < end; e++ )
+            if( area[ in.target( e ) ] != area[ v ] )
+                return true;
+        return false;
+    }
+
+    private void rebuild( LinkStore out, LinkStore in )
+    {
+        index = new HashMap<Integer,Integer>( );
+        index.put( BACKBONE, 0 );
+        List<Integer> order = new ArrayList<Integer>( );
+        order.add( BACKBONE );
+        for( int v = 0; v < routers; v++ )
+            if( index.putIfAbsent( area[ v ], order.size( ) ) == null )
+                order.add( area[ v ] );
+        int k = order.size( );
+        ids = new int[ k ];
+        for( int i = 0; i < k; i++ )
+            ids[ i ] = order.get( i );
+
+        int[] size = new int[ k ], abrs = new int[ k ];
+        homeSlot = new int[ routers ];
+        backboneSlot = new int[ routers ];
+        for( int v = 0; v < routers; v++ )
+        {
+            int i = index.get( area[ v ] );
+            homeSlot[ v ] = size[ i ]++;
+            backboneSlot[ v ] = -1;
+            if( i != BACKBONE && border( out, in, v ) )
+            {
+                backboneSlot[ v ] = size[ BACKBONE ]++;
+                abrs[ i ]++;
+            }
+            else if( i == BACKBONE )
+                backboneSlot[ v ] = homeSlot[ v ];
+        }
+        // Backbone routers of their own come first, then ABRs as numbered above
+        members = new int[ k ][];
+        borders = new int[ k ][];
+        for( int i = 0; i < k; i++ )
+        {
+            members[ i ] = new int[ size[ i ] ];
+            borders[ i ] = new int[ abrs[ i ] ];
+            abrs[ i ] = 0;
+        }
+        for( int v = 0; v < routers; v++ )
+        {
+            int i = index.get( area[ v ] );
+            members[ i ][ homeSlot[ v ] ] = v;
+            if( i != BACKBONE && backboneSlot[ v ] >= 0 )
+            {
+                members[ BACKBONE ][ backboneSlot[ v ] ] = v;
+                borders[ i ][ abrs[ i ]++ ] = v;
+            }
+        }
+        epoch = new long[ k ];
+        runs = new long[ k ];
+        trees.clear( );
+        stale = false;
+    }
+
+    private int slot( int i, int v )
+      { return i == BACKBONE ? backboneSlot[ v ] : homeSlot[ v ]; }
+
+    /**
+     * Tree from router source over area index i, which source is in.
+     */
+    private Tree tree( LinkStore out, BitSet down, int i, int source )
+    {
+        long key = (long) i << 32 | source;
+        Tree t = trees.get( key );
+        if( t != null && t.epoch == epoch[ i ] )
+            return t;
+        runs[ i ]++;
+        int[] m = members[ i ];
+        t = new Tree( epoch[ i ], m.length );
+        Arrays.fill( t.dist, Graph.INFINITY );
+        Arrays.fill( t.prev, -1 );
+        heap.reset( t.dist, m.length );
+        t.dist[ slot( i, source ) ] = 0;
+        heap.update( slot( i, source ) );
+        while( !heap.isEmpty( ) )
+        {
+            int s = heap.poll( );
+            int v = m[ s ];
+            for( int e = out.begin( v ), end = out.end( v ); e < end; e++ )
+            {
+                int w = out.target( e );
+                if( down.get( w ) || out.isDown( e ) )
+                    continue;
+                // Inside an area, its own links; on the backbone, backbone links and links between areas
+                if( i == BACKBONE ? area[ v ] == area[ w ] && area[ v ] != BACKBONE : area[ w ] != area[ v ] )
+                    continue;
+                int j = slot( i, w );
+                double d = t.dist[ s ] + out.weight( e );
+                if( d < t.dist[ j ] )
+                {
+                    t.dist[ j ] = d;
+                    t.prev[ j ] = v;
+                    heap.update( j );
+                }
+            }
+        }
+        trees.put( key, t );
+        return t;
+    }
+
+    /**
+     * Path from s to d by OSPF's area rules, s first, or null if there is
+     * none. Trees come from the cache where their area has not changed.
+     */
+    public int[] route( LinkStore out, LinkStore in, BitSet down, int s, int d )
+    {
+        if( stale )
+            rebuild( out, in );
+        int a = index.get( area[ s ] ), b = index.get( area[ d ] );
+        Tree home = tree( out, down, a, s );
+        if( a == b && home.dist[ slot( a, d ) ] != Graph.INFINITY )
+            return join( path( home, a, s, d ), null, null );
+
+        // Leave a's area at an ABR, or at once from the backbone
+        double best = Graph.INFINITY;
+        int[] exit = null, cross = null, enter = null;
+        int[] exits = a == BACKBONE ? new int[]{ s } : borders[ a ];
+        int[] entries = b == BACKBONE ? new int[]{ d } : borders[ b ];
+        for( int x : exits )
+        {
+            double toExit = home.dist[ slot( a, x ) ];
+            if( toExit == Graph.INFINITY )
+                continue;
+            Tree backbone = tree( out, down, BACKBONE, x );
+            for( int y : entries )
+            {
+                double across = backbone.dist[ backboneSlot[ y ] ];
+                if( across == Graph.INFINITY )
+                    continue;
+                Tree summary = b == BACKBONE ? null : tree( out, down, b, y );
+                double toEnd = summary == null ? 0 : summary.dist[ homeSlot[ d ] ];
+                if( toExit + across + toEnd < best )
+                {
+                    best = toExit + across + toEnd;
+                    exit = path( home, a, s, x );
+                    cross = path( backbone, BACKBONE, x, y );
+                    enter = summary == null ? new int[]{ d } : path( summary, b, y, d );
+                }
+            }
+        }
+        return exit == null ? null : join( exit, cross, enter );
+    }
+
+    /**
+     * Routers from source to v along t's prev links.
+     */
+    private int[] path( Tree t, int i, int source, int v )
+    {
+        int hops = 1;
+        for( int u = v; u != source; u = t.prev[ slot( i, u ) ] )
+            hops++;
+        int[] p = new int[ hops ];
+        for( int k = hops - 1, u = v; k >= 0; k-- )
+        {
+            p[ k ] = u;
+            if( k > 0 )
+                u = t.prev[ slot( i, u ) ];
+        }
+        return p;
+    }
+
+    // Sections end where the next begins; keep that router once
+    private static int[] join( int[] first, int[] second, int[] third )
+    {
+        int[] p = first;
+        for( int[] next : new int[][]{ second, third } )
+            if( next != null )
+            {
+                int length = p.length;
+                p = Arrays.copyOf( p, length + next.length - 1 );
+                System.arraycopy( next, 1, p, length, next.length - 1 );
+            }
+        return p;
+    }
+
+    /**
+     * Print every area with its routers, ABRs and SPF runs so far.
+     */
+    public void print( PrintStream out, LinkStore links, LinkStore in )
+    {
+        if( stale )
+            rebuild( links, in );
+        Integer[] order = new Integer[ ids.length ];
+        for( int i = 0; i < order.length; i++ )
+            order[ i ] = i;
+        Arrays.sort( order, ( x, y ) -> Integer.compare( ids[ x ], ids[ y ] ) );
+        for( int i : order )
+            out.println( "Area " + ids[ i ] + ( i == BACKBONE ? " (backbone): " + members[ i ].length + " routers with ABRs"
+                                                                 : ": " + members[ i ].length + " routers, " + borders[ i ].length + " ABRs" )
+                         + ", " + runs[ i ] + " SPF runs" );
+        out.println( trees.size( ) + " area trees cached" );
+    }
+}
+
+// Customizable contraction hierarchy for fast path lookups on a mostly
+// static topology. Building it has two phases:
+//   ordering      routers are contracted in min-degree order, looking only
+//                 at which routers are linked, not at costs. Contracting v
+//                 links all its remaining neighbours to each other, with no
+//                 witness searches, so the arcs (v to each neighbour it had
+//                 when contracted, all ranked above v) form a structure that
+//                 suits every metric.
+//   customizing   each arc gets the cost of its link each way (INFINITY if
+//                 none, or it or either end is down), then every lower
+//                 triangle v, a, b with v ranked lowest offers a path a, v, b
+//                 to arc a - b. Going through v in rank order leaves every
+//                 arc with the cost of the best path through lower routers.
+// Changes to costs and up/down state only need customizing again. A link
+// between routers with no arc, or a new router, needs a new ordering.
+//
+// A query climbs from each end through the elimination tree, whose parent
+// of v is v's lowest ranked upper neighbour. Every upward path from v stays
+// on v's ancestors, so relaxing the ancestors in order gives exact upward
+// distances without a queue; the answer is the best ancestor both reach.
+// Arcs that stand for a path through v remember v, which unpacks them.
+class ContractionHierarchy
+{
+    private final int n;
+    private final int[] rank;
+    private final int[] parent;      // In the elimination tree, -1 at a root
+    private final int[] start;       // Arcs of v are start[ v ] .. start[ v + 1 ] - 1,
+    private final int[] head;        // to routers ranked above v, sorted by id
+    private double[] upCost;         // v to head
+    private double[] downCost;       // head to v
+    private int[] upMiddle;          // Router the up path goes through, or -1
+    private int[] downMiddle;
+    private int[] arcTail;
+
+    private final double[] distUp, distDown;   // Query state, INFINITY between queries
+    private final int[] prevUp, prevDown;      // Arc used to reach a router
+
+    public final double buildMillis;
+    public double customizeMillis;
+
+    /**
+     * Order the routers of a graph with the given links (either way).
+     */
+    public ContractionHierarchy( LinkStore links, int n )
+    {
+        long begin = System.nanoTime( );
+        this.n = n;
+        int[][] adjacent = new int[ n ][];
+        int[] count = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+                if( links.target( e ) != v )
+                {
+                    count[ v ]++;
+                    count[ links.target( e ) ]++;
+                }
+        for( int v = 0; v < n; v++ )
+            adjacent[ v ] = new int[ count[ v ] ];
+        Arrays.fill( count, 0 );
+        for( int v = 0; v < n; v++ )
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+            {
+                int w = links.target( e );
+                if( w != v )
+                {
+                    adjacent[ v ][ count[ v ]++ ] = w;
+                    adjacent[ w ][ count[ w ]++ ] = v;
+                }
+            }
+        for( int v = 0; v < n; v++ )
+            adjacent[ v ] = unique( adjacent[ v ] );
+
+        // Contract in min-degree order; stale queue entries are skipped
+        rank = new int[ n ];
+        Arrays.fill( rank, -1 );
+        int[][] upper = new int[ n ][];
+        PriorityQueue<Long> queue = new PriorityQueue<Long>( n );
+        for( int v = 0; v < n; v++ )
+            queue.add( (long) adjacent[ v ].length << 32 | v );
+        int next = 0;
+        while( !queue.isEmpty( ) )
+        {
+            long entry = queue.poll( );
+            int v = (int) entry;
+            if( rank[ v ] >= 0 || adjacent[ v ].length != (int) ( entry >>> 32 ) )
+                continue;
+            rank[ v ] = next++;
+            int[] left = adjacent[ v ];
+            upper[ v ] = left;
+            adjacent[ v ] = null;
+            for( int u : left )
+            {
+                adjacent[ u ] = mergeWithout( adjacent[ u ], left, u, v );
+                queue.add( (long) adjacent[ u ].length << 32 | u );
+            }
+        }
+
+        start = new int[ n + 1 ];
+        for( int v = 0; v < n; v++ )
+            start[ v + 1 ] = start[ v ] + upper[ v ].length;
+        head = new int[ start[ n ] ];
+        arcTail = new int[ start[ n ] ];
+        parent = new int[ n ];
+        for( int v = 0; v < n; v++ )
+        {
+            System.arraycopy( upper[ v ], 0, head, start[ v ], upper[ v ].length );
+            parent[ v ] = -1;
+            for( int u : upper[ v ] )
+                if( parent[ v ] < 0 || rank[ u ] < rank[ parent[ v ] ] )
+                    parent[ v ] = u;
+            Arrays.fill( arcTail, start[ v ], start[ v + 1 ], v );
+        }
+        distUp = new double[ n ];
+        distDown = new double[ n ];
+        Arrays.fill( distUp, Graph.INFINITY );
+        Arrays.fill( distDown, Graph.INFINITY );
+        prevUp = new int[ n ];
+        prevDown = new int[ n ];
+        buildMillis = ( System.nanoTime( ) - begin ) / 1e6;
+    }
+
+    public int arcs( )
+      { return head.length; }
+
+    /**
+     * Bytes held by the index.
+     */
+    public long bytes( )
+    {
+        return 4L * ( rank.length + parent.length + start.length + prevUp.length + prevDown.length )
+             + 8L * ( distUp.length + distDown.length )
+             + (long) head.length * ( 4 + 4 + 8 + 8 + 4 + 4 );
+    }
+
+    /**
+     * True if routers v and w share an arc, so a link between them is
+     * covered by customizing.
+     */
+    public boolean hasArc( int v, int w )
+    {
+        if( v >= n || w >= n )
+            return false;
+        return v == w || arc( v, w ) >= 0;
+    }
+
+    /**
+     * Take the costs and up/down state now in links and down.
+     */
+    public void customize( LinkStore links, BitSet down )
+    {
+        long begin = System.nanoTime( );
+        int m = head.length;
+        upCost = new double[ m ];
+        downCost = new double[ m ];
+        upMiddle = new int[ m ];
+        downMiddle = new int[ m ];
+        Arrays.fill( upCost, Graph.INFINITY );
+        Arrays.fill( downCost, Graph.INFINITY );
+        Arrays.fill( upMiddle, -1 );
+        Arrays.fill( downMiddle, -1 );
+        for( int v = 0; v < n; v++ )
+        {
+            if( down.get( v ) )
+                continue;
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+            {
+                int w = links.target( e );
+                if( w == v || links.isDown( e ) || down.get( w ) )
+                    continue;
+                if( rank[ v ] < rank[ w ] )
+                    upCost[ arc( v, w ) ] = links.weight( e );
+                else
+                    downCost[ arc( w, v ) ] = links.weight( e );
+            }
+        }
+
+        // Lower triangles, lowest corner first
+        int[] byRank = new int[ n ];
+        for( int v = 0; v < n; v++ )
+            byRank[ rank[ v ] ] = v;
+        for( int v : byRank )
+            for( int i = start[ v ]; i < start[ v + 1 ]; i++ )
+                for( int j = i + 1; j < start[ v + 1 ]; j++ )
+                {
+                    int a = head[ i ], b = head[ j ];
+                    int ai = i, bj = j;
+                    if( rank[ a ] > rank[ b ] )
+                    {
+                        int swap = a; a = b; b = swap;
+                        swap = ai; ai = bj; bj = swap;
+                    }
+                    int k = arc( a, b );
+                    double up = downCost[ ai ] + upCost[ bj ];     // a to v to b
+                    if( up < upCost[ k ] )
+                    {
+                        upCost[ k ] = up;
+                        upMiddle[ k ] = v;
+                    }
+                    double back = downCost[ bj ] + upCost[ ai ];   // b to v to a
+                    if( back < downCost[ k ] )
+                    {
+                        downCost[ k ] = back;
+                        downMiddle[ k ] = v;
+                    }
+                }
+        customizeMillis = ( System.nanoTime( ) - begin ) / 1e6;
+    }
+
+    /**
+     * Shortest path from s to t as routers, start first, or null if there
+     * is none. Needs customize( ) first.
+     */
+    public int[] path( int s, int t )
+    {
+        for( int v = s; v >= 0; v = parent[ v ] )
+            prevUp[ v ] = -1;
+        for( int v = t; v >= 0; v = parent[ v ] )
+            prevDown[ v ] = -1;
+        distUp[ s ] = 0;
+        distDown[ t ] = 0;
+        climb( s, distUp, prevUp, upCost );
+        climb( t, distDown, prevDown, downCost );
+
+        int meet = -1;
+        double best = Graph.INFINITY;
+        for( int v = s; v >= 0; v = parent[ v ] )
+            if( distUp[ v ] + distDown[ v ] < best )
+            {
+                best = distUp[ v ] + distDown[ v ];
+                meet = v;
+            }
+        int[] path = meet < 0 ? null : unpack( meet );
+        for( int v = s; v >= 0; v = parent[ v ] )
+            distUp[ v ] = Graph.INFINITY;
+        for( int v = t; v >= 0; v = parent[ v ] )
+            distDown[ v ] = Graph.INFINITY;
+        return path;
+    }
+
+    private void climb( int from, double[] dist, int[] prev, double[] cost )
+    {
+        for( int v = from; v >= 0; v = parent[ v ] )
+        {
+            if( dist[ v ] == Graph.INFINITY )
+                continue;
+            for( int i = start[ v ]; i < start[ v + 1 ]; i++ )
+            {
+                double d = dist[ v ] + cost[ i ];
+                if( d < dist[ head[ i ] ] )
+                {
+                    dist[ head[ i ] ] = d;
+                    prev[ head[ i ] ] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Routers of the path found through meet, with arcs unpacked.
+     */
+    private int[] unpack( int meet )
+    {
+        IntList arcs = new IntList( );
+        int v = meet;
+        for( ; prevUp[ v ] >= 0; v = arcTail[ prevUp[ v ] ] )
+            arcs.add( prevUp[ v ] );
+        IntList path = new IntList( );
+        path.add( v );
+        for( int i = arcs.size - 1; i >= 0; i-- )
+            expand( arcs.values[ i ], true, path );
+        for( v = meet; prevDown[ v ] >= 0; v = arcTail[ prevDown[ v ] ] )
+            expand( prevDown[ v ], false, path );
+        return Arrays.copyOf( path.values, path.size );
+    }
+
+    /**
+     * Append the routers after the first on arc k's path, up from its tail
+     * to its head, or down from its head to its tail.
+     */
+    private void expand( int k, boolean up, IntList path )
+    {
+        int[] middle = up ? upMiddle : downMiddle;
+        int v = middle[ k ];
+        if( v < 0 )
+        {
+            path.add( up ? head[ k ] : arcTail[ k ] );
+            return;
+        }
+        int a = arc( v, arcTail[ k ] ), b = arc( v, head[ k ] );
+        if( up )
+        {
+            expand( a, false, path );        // tail down to v
+            expand( b, true, path );         // v up to head
+        }
+        else
+        {
+            expand( b, false, path );        // head down to v
+            expand( a, true, path );         // v up to tail
+        }
+    }
+
+    /**
+     * Arc between v and w, found from the lower ranked one; -1 if none.
+     */
+    private int arc( int v, int w )
+    {
+        if( rank[ v ] > rank[ w ] )
+        {
+            int swap = v; v = w; w = swap;
+        }
+        int i = Arrays.binarySearch( head, start[ v ], start[ v + 1 ], w );
+        return i < 0 ? -1 : i;
+    }
+
+    private static int[] unique( int[] a )
+    {
+        Arrays.sort( a );
+        int size = 0;
+        for( int i = 0; i < a.length; i++ )
+            if( size == 0 || a[ size - 1 ] != a[ i ] )
+                a[ size++ ] = a[ i ];
+        return Arrays.copyOf( a, size );
+    }
+
+    /**
+     * Sorted union of a and b, leaving out self and gone.
+     */
+    private static int[] mergeWithout( int[] a, int[] b, int self, int gone )
+    {
+        int[] out = new int[ a.length + b.length ];
+        int i = 0, j = 0, size = 0;
+        while( i < a.length || j < b.length )
+        {
+            int x = j == b.length || ( i < a.length && a[ i ] <= b[ j ] ) ? a[ i ] : b[ j ];
+            if( i < a.length && a[ i ] == x )
+                i++;
+            if( j < b.length && b[ j ] == x )
+                j++;
+            if( x != self && x != gone )
+                out[ size++ ] = x;
+        }
+        return Arrays.copyOf( out, size );
+    }
+
+    /**
+     * Growable list of ints.
+     */
+    private static final class IntList
+    {
+        int[] values = new int[ 16 ];
+        int size;
+
+        void add( int v )
+        {
+            if( size == values.length )
+                values = Arrays.copyOf( values, size * 2 );
+            values[ size++ ] = v;
+        }
+    }
+}
+
+// Loads a network file of "source destination weight" lines in parallel.
+// The file is memory-mapped in newline-aligned chunks. Each chunk is parsed
+// on its own thread straight from the mapped bytes: names become spans in a
+// per-chunk hash table and weights are decoded in place, so no String is
+// made per token. One merge step then gives every distinct name its global
+// id, in order of first appearance, and the link store is built in one pass.
+// Ill-formatted lines are reported exactly as the line-by-line reader did.
+class TopologyLoader
+{
+    private static final Charset NAMES = Charset.defaultCharset( );
+
+    // What one chunk of the file parsed into
+    private static final class Chunk
+    {
+        final MappedByteBuffer buf;
+        int names;                                   // Distinct names in the chunk
+        int[] nameStart = new int[ 64 ], nameLength = new int[ 64 ], nameHash = new int[ 64 ];
+        int[] table = new int[ 128 ];                // Open addressing: local id + 1
+        int edges;
+        int[] from = new int[ 64 ], to = new int[ 64 ];
+        double[] cost = new double[ 64 ];
+        int lines;
+        List<String> errors = new ArrayList<String>( );
+
+        Chunk( MappedByteBuffer buf )
+          { this.buf = buf; }
+    }
+
+    private final String fileName;
+    private long lines;
+
+    public TopologyLoader( String fileName )
+    {
+        this.fileName = fileName;
+    }
+
+    public long lines( )
+      { return lines; }
+
+    /**
+     * Parse the file and bulk-load it into g, which must still be empty.
+     */
+    public void loadInto( Graph g ) throws IOException
+    {
+        List<Chunk> chunks = new ArrayList<Chunk>( );
+        try( RandomAccessFile file = new RandomAccessFile( fileName, "r" );
+             FileChannel channel = file.getChannel( ) )
+        {
+            long size = channel.size( );
+            int threads = Runtime.getRuntime( ).availableProcessors( );
+            long target = Math.min( 1L << 29, Math.max( 1L << 20, size / ( threads * 4L ) + 1 ) );
+            long start = 0;
+            while( start < size )
+            {
+                long end = lineEnd( channel, Math.min( size, start + target ), size );
+                chunks.add( new Chunk( channel.map( FileChannel.MapMode.READ_ONLY, start, end - start ) ) );
+                start = end;
+            }
+        }
+
+        List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>( );
+        for( Chunk c : chunks )
+            tasks.add( ( ) -> parse( c ) );
+        try
+        {
+            for( Future<Chunk> f : ForkJoinPool.commonPool( ).invokeAll( tasks ) )
+                f.get( );
+        }
+        catch( InterruptedException | ExecutionException e )
+        {
+            throw new IOException( "Loading " + fileName + " failed", e );
+        }
+
+        merge( g, chunks );
+    }
+
+    /**
+     * Return the offset just past the first newline at or after pos.
+     */
+    private static long lineEnd( FileChannel channel, long pos, long size ) throws IOException
+    {
+        ByteBuffer window = ByteBuffer.allocate( 1 << 12 );
+        while( pos < size )
+        {
+            window.clear( );
+            int n = channel.read( window, pos );
+            for( int i = 0; i < n; i++ )
+                if( window.get( i ) == '\n' )
+                    return pos + i + 1;
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * Split a chunk into lines and lines into tokens, as Scanner.nextLine( )
+     * and StringTokenizer would.
+     */
+    private static Chunk parse( Chunk c )
+    {
+        MappedByteBuffer b = c.buf;
+        int limit = b.limit( );
+        int[] tokenStart = new int[ 3 ], tokenEnd = new int[ 3 ];
+        int pos = 0;
+        while( pos < limit )
+        {
+            // Find the end of the line; \n, \r and \r\n all end one
+            int lineStart = pos, lineEnd = pos;
+            while( lineEnd < limit && b.get( lineEnd ) != '\n' && b.get( lineEnd ) != '\r' )
+                lineEnd++;
+            pos = lineEnd + 1;
+            if( lineEnd < limit && b.get( lineEnd ) == '\r' && pos < limit && b.get( pos ) == '\n' )
+                pos++;
+            c.lines++;
+
+            int tokens = 0;
+            for( int i = lineStart; i < lineEnd; )
+            {
+                byte ch = b.get( i );
+                if( ch == ' ' || ch == '\t' || ch == '\f' )
+                {
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while( end < lineEnd && ( ch = b.get( end ) ) != ' ' && ch != '\t' && ch != '\f' )
+                    end++;
+                if( tokens < 3 )
+                {
+                    tokenStart[ tokens ] = i;
+                    tokenEnd[ tokens ] = end;
+                }
+                tokens++;
+                i = end;
+            }
+
+            double weight;
+            try
+            {
+                if( tokens != 3 )
+                    throw new NumberFormatException( );
+                weight = parseWeight( b, tokenStart[ 2 ], tokenEnd[ 2 ] );
+            }
+            catch( NumberFormatException e )
+            {
+                c.errors.add( "Skipping ill-formatted line " + text( b, lineStart, lineEnd ) );
+                continue;
+            }
+            if( c.edges == c.from.length )
+            {
+                c.from = Arrays.copyOf( c.from, c.edges * 2 );
+                c.to = Arrays.copyOf( c.to, c.edges * 2 );
+                c.cost = Arrays.copyOf( c.cost, c.edges * 2 );
+            }
+            c.from[ c.edges ] = intern( c, tokenStart[ 0 ], tokenEnd[ 0 ] );
+            c.to[ c.edges ] = intern( c, tokenStart[ 1 ], tokenEnd[ 1 ] );
+            c.cost[ c.edges++ ] = weight;
+        }
+        return c;
+    }
+
+    /**
+     * Decode a weight as Double.parseDouble would. A plain decimal with at
+     * most 15 significant digits is exact as one division of two exactly
+     * represented doubles; anything else goes to Double.parseDouble.
+     */
+    private static double parseWeight( ByteBuffer b, int start, int end )
+    {
+        int i = start;
+        boolean negative = false;
+        if( i < end && ( b.get( i ) == '-' || b.get( i ) == '+' ) )
+            negative = b.get( i++ ) == '-';
+        long mantissa = 0;
+        int digits = 0, significant = 0, fraction = 0;
+        boolean point = false, plain = true;
+        for( ; i < end && plain; i++ )
+        {
+            byte ch = b.get( i );
+            if( ch == '.' && !point )
+                point = true;
+            else if( ch < '0' || ch > '9' || ( mantissa != 0 || ch != '0' ) && ++significant > 15 )
+                plain = false;
+            else
+            {
+                mantissa = mantissa * 10 + ( ch - '0' );
+                digits++;
+                if( point )
+                    fraction++;
+            }
+        }
+        if( plain && digits > 0 && fraction < POWERS.length )
+        {
+            double value = mantissa / POWERS[ fraction ];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble( text( b, start, end ) );
+    }
+
+    private static final double[] POWERS = new double[ 23 ];   // Exact powers of ten
+    static
+    {
+        POWERS[ 0 ] = 1;
+        for( int i = 1; i < POWERS.length; i++ )
+            POWERS[ i ] = POWERS[ i - 1 ] * 10;
+    }
+
+    private static String text( ByteBuffer b, int start, int end )
+    {
+        byte[] bytes = new byte[ end - start ];
+        b.get( start, bytes );
+        return new String( bytes, NAMES );
+    }
+
+    private static int hash( ByteBuffer b, int start, int end )
+    {
+        int h = 0;
+        for( int i = start; i < end; i++ )
+            h = 31 * h + b.get( i );
+        return h ^ ( h >>> 16 );
+    }
+
+    private static boolean sameBytes( ByteBuffer a, int aStart, ByteBuffer b, int bStart, int length )
+    {
+        for( int i = 0; i < length; i++ )
+            if( a.get( aStart + i ) != b.get( bStart + i ) )
+                return false;
+        return true;
+    }
+
+    /**
+     * Return the chunk-local id of the name in bytes start..end-1.
+     */
+    private static int intern( Chunk c, int start, int end )
+    {
+        int h = hash( c.buf, start, end ), length = end - start;
+        int mask = c.table.length - 1;
+        for( int slot = h & mask; ; slot = ( slot + 1 ) & mask )
+        {
+            int id = c.table[ slot ] - 1;
+            if( id < 0 )
+                break;
+            if( c.nameHash[ id ] == h && c.nameLength[ id ] == length
+                && sameBytes( c.buf, c.nameStart[ id ], c.buf, start, length ) )
+                return id;
+        }
+        if( c.names == c.nameStart.length )
+        {
+            c.nameStart = Arrays.copyOf( c.nameStart, c.names * 2 );
+            c.nameLength = Arrays.copyOf( c.nameLength, c.names * 2 );
+            c.nameHash = Arrays.copyOf( c.nameHash, c.names * 2 );
+        }
+        int id = c.names++;
+        c.nameStart[ id ] = start;
+        c.nameLength[ id ] = length;
+        c.nameHash[ id ] = h;
+        if( c.names * 2 > c.table.length )
+            rehash( c );
+        else
+            place( c.table, h, id );
+        return id;
+    }
+
+    private static void rehash( Chunk c )
+    {
+        c.table = new int[ c.table.length * 2 ];
+        for( int id = 0; id < c.names; id++ )
+            place( c.table, c.nameHash[ id ], id );
+    }
+
+    private static void place( int[] table, int h, int id )
+    {
+        int mask = table.length - 1;
+        int slot = h & mask;
+        while( table[ slot ] != 0 )
+            slot = ( slot + 1 ) & mask;
+        table[ slot ] = id + 1;
+    }
+
+    /**
+     * Report errors in file order, give each distinct name a global id in
+     * order of first appearance, and hand the edge list to the graph.
+     */
+    private void merge( Graph g, List<Chunk> chunks )
+    {
+        int edges = 0, names = 0;
+        for( Chunk c : chunks )
+        {
+            for( String error : c.errors )
+                System.err.println( error );
+            edges += c.edges;
+            names += c.names;
+            lines += c.lines;
+        }
+
+        // Global table of names, each remembered by the chunk span it came from
+        int[] table = new int[ Integer.highestOneBit( Math.max( 2, names ) * 2 - 1 ) << 1 ];
+        int[] ownerChunk = new int[ names ], ownerLocal = new int[ names ];
+        SymbolTable global = new SymbolTable( );
+        int[] from = new int[ edges ], to = new int[ edges ];
+        double[] cost = new double[ edges ];
+        int next = 0;
+        for( int k = 0; k < chunks.size( ); k++ )
+        {
+            Chunk c = chunks.get( k );
+            int[] toGlobal = new int[ c.names ];
+            for( int id = 0; id < c.names; id++ )
+                toGlobal[ id ] = -1;
+
+            // Names get global ids in the order the edges first mention them
+            for( int e = 0; e < c.edges; e++ )
+            {
+                for( int end = 0; end < 2; end++ )
+                {
+                    int id = end == 0 ? c.from[ e ] : c.to[ e ];
+                    if( toGlobal[ id ] >= 0 )
+                        continue;
+                    int h = c.nameHash[ id ], mask = table.length - 1, slot = h & mask;
+                    int found = -1;
+                    for( ; table[ slot ] != 0; slot = ( slot + 1 ) & mask )
+                    {
+                        int gid = table[ slot ] - 1;
+                        Chunk o = chunks.get( ownerChunk[ gid ] );
+                        int oid = ownerLocal[ gid ];
+                        if( o.nameHash[ oid ] == h && o.nameLength[ oid ] == c.nameLength[ id ]
+                            && sameBytes( o.buf, o.nameStart[ oid ], c.buf, c.nameStart[ id ], c.nameLength[ id ] ) )
+                        {
+                            found = gid;
+                            break;
+                        }
+                    }
+                    if( found < 0 )
+                    {
+                        found = global.add( text( c.buf, c.nameStart[ id ], c.nameStart[ id ] + c.nameLength[ id ] ) );
+                        ownerChunk[ found ] = k;
+                        ownerLocal[ found ] = id;
+                        table[ slot ] = found + 1;
+                    }
+                    toGlobal[ id ] = found;
+                }
+                from[ next ] = toGlobal[ c.from[ e ] ];
+                to[ next ] = toGlobal[ c.to[ e ] ];
+                cost[ next++ ] = c.cost[ e ];
+            }
+        }
+        g.bulkLoad( global, from, to, cost, edges );
+    }
+}
+
+// Binary snapshot of a whole graph, laid out so it can be memory-mapped and
+// copied into the graph's arrays section by section, with nothing to parse.
+// All values are big-endian; every section starts on an 8 byte boundary.
+//
+//   int MAGIC, int VERSION, long generation, int vertices n, int name bytes b
+//   int[ n + 1 ] name offsets, byte[ b ] UTF-8 names
+//   int table length t, int[ t ] name lookup table            (then padding)
+//   long[ ( n + 63 ) / 64 ] down vertices, bit v of word v / 64
+//   out-links, then in-links, each as written by LinkStore.write( )
+//
+// generation ties a snapshot to the journal of changes made after it.
+// Version 1 snapshots, without the lookup table, are still read.
+class Snapshot
+{
+    public static final int MAGIC = 0x4f535053;     // "OSPS"
+    public static final int VERSION = 2;
+
+    /**
+     * Pad out to the next multiple of 8 bytes.
+     */
+    static void pad( DataOutputStream out ) throws IOException
+    {
+        while( out.size( ) % 8 != 0 )
+            out.write( 0 );
+    }
+
+    /**
+     * Skip in to the next multiple of 8 bytes.
+     */
+    static void align( ByteBuffer in )
+    {
+        in.position( ( in.position( ) + 7 ) & ~7 );
+    }
+
+    static int[] ints( ByteBuffer in, int count )
+    {
+        int[] values = new int[ count ];
+        in.slice( ).asIntBuffer( ).get( values );
+        in.position( in.position( ) + 4 * count );
+        return values;
+    }
+
+    static long[] longs( ByteBuffer in, int count )
+    {
+        long[] values = new long[ count ];
+        in.slice( ).asLongBuffer( ).get( values );
+        in.position( in.position( ) + 8 * count );
+        return values;
+    }
+
+    static double[] doubles( ByteBuffer in, int count )
+    {
+        double[] values = new double[ count ];
+        in.slice( ).asDoubleBuffer( ).get( values );
+        in.position( in.position( ) + 8 * count );
+        return values;
+    }
+}
+
+// Append-only log of the topology changes made since the last snapshot.
+// It starts with MAGIC and the generation of that snapshot, followed by
+// one record per change: byte request op, UTF first name, UTF second name
+// (empty if none), double weight. Each record is flushed as it is written.
+class Journal
+{
+    public static final int MAGIC = 0x4f53504a;     // "OSPJ"
+
+    private final String fileName;
+    private DataOutputStream out;
+
+    public Journal( String fileName )
+    {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Start an empty journal for the snapshot of the given generation.
+     */
+    public void reset( long generation ) throws IOException
+    {
+        close( );
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName ) ) );
+        out.writeInt( MAGIC );
+        out.writeLong( generation );
+        out.flush( );
+    }
+
+    /**
+     * Keep appending to the journal as it stands.
+     */
+    public void reopen( ) throws IOException
+    {
+        close( );
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName, true ) ) );
+    }
+
+    public void append( Command c ) throws IOException
+    {
+        out.writeByte( c.op );
+        out.writeUTF( c.first );
+        out.writeUTF( c.second == null ? "" : c.second );
+        out.writeDouble( c.weight );
+        out.flush( );
+    }
+
+    /**
+     * Read back the changes logged after the snapshot of the given
+     * generation. Returns null if there is no journal or it belongs to
+     * another snapshot; a torn last record is dropped.
+     */
+    public List<Command> read( long generation ) throws IOException
+    {
+        List<Command> changes = new ArrayList<Command>( );
+        if( !new File( fileName ).exists( ) )
+            return null;
+        try( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( fileName ) ) ) )
+        {
+            if( in.readInt( ) != MAGIC || in.readLong( ) != generation )
+                return null;
+            while( true )
+            {
+                int op = in.read( );
+                if( op < 0 )
+                    break;
+                String first = in.readUTF( );
+                String second = in.readUTF( );
+                double weight = in.readDouble( );
+                changes.add( Command.of( op, first, second.isEmpty( ) ? null : second, weight ) );
+            }
+        }
+        catch( EOFException e )
+        {
+            // Journal ended inside a record
+        }
+        return changes;
+    }
+
+    public void close( ) throws IOException
+    {
+        if( out != null )
+            out.close( );
+        out = null;
+    }
+}
+
+// One immutable version of the topology, so path queries can run on any
+// number of threads while a single writer changes the graph. Each router is
+// a Row holding its name, up/down state and out-links; rows sit in pages of
+// PAGE rows under a page directory. A change makes a new version that copies
+// only the changed row, its page and the directory, and shares every other
+// row and page with the version before. Writers publish versions through an
+// AtomicReference; a reader pins one version and computes on it alone.
+//
+// Names are found through an id map shared by all versions of a graph. The
+// map only grows, and a version treats ids beyond its own routers as unknown.
+// The fingerprint is the sum of the row hashes, kept up as rows change, so a
+// version can be checked later against what it held when it was published.
+final class Topology
+{
+    static final int PAGE = 256;
+    private static final ThreadLocal<SpfWorkspace> WORKSPACES = ThreadLocal.withInitial( SpfWorkspace::new );
+
+    static final class Row
+    {
+        final String   name;
+        final boolean  down;
+        final int[]    target;
+        final double[] weight;
+        final byte[]   flags;
+        final long     hash;
+
+        Row( String name, boolean down, int[] target, double[] weight, byte[] flags )
+        {
+            this.name = name;
+            this.down = down;
+            this.target = target;
+            this.weight = weight;
+            this.flags = flags;
+            hash = hash( );
+        }
+
+        /**
+         * Hash of the row's present contents.
+         */
+        long hash( )
+        {
+            long h = name.hashCode( ) * 0x9e3779b97f4a7c15L + ( down ? 1 : 0 );
+            for( int i = 0; i < target.length; i++ )
+                h = ( h ^ target[ i ] ^ Double.doubleToLongBits( weight[ i ] ) * 31 ^ flags[ i ] ) * 0xff51afd7ed558ccdL;
+            return h ^ h >>> 29;
+        }
+    }
+
+    /**
+     * Answer to a path query from the given version: the routers on the
+     * path, or null if there is none, and its cost.
+     */
+    static final class Route
+    {
+        public final Topology version;
+        public final int      from;
+        public final int      to;
+        public final int[]    hops;
+        public final double   cost;
+
+        Route( Topology version, int from, int to, int[] hops, double cost )
+        {
+            this.version = version;
+            this.from = from;
+            this.to = to;
+            this.hops = hops;
+            this.cost = cost;
+        }
+    }
+
+    public final long version;
+    public final int routers;
+    public final long fingerprint;
+    private final Row[][] pages;
+    private final ConcurrentHashMap<String,Integer> ids;
+
+    private Topology( long version, int routers, Row[][] pages, ConcurrentHashMap<String,Integer> ids, long fingerprint )
+    {
+        this.version = version;
+        this.routers = routers;
+        this.pages = pages;
+        this.ids = ids;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Version of a whole new graph, with rows[ v ] for router v.
+     */
+    static Topology of( long version, Row[] rows, int routers )
+    {
+        Row[][] pages = new Row[ ( routers + PAGE - 1 ) / PAGE ][];
+        ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<String,Integer>( routers * 2 );
+        long fingerprint = 0;
+        for( int p = 0; p < pages.length; p++ )
+            pages[ p ] = Arrays.copyOfRange( rows, p * PAGE, ( p + 1 ) * PAGE );
+        for( int v = 0; v < routers; v++ )
+        {
+            ids.put( rows[ v ].name, v );
+            fingerprint += rows[ v ].hash;
+        }
+        return new Topology( version, routers, pages, ids, fingerprint );
+    }
+
+    /**
+     * Next version, with row v replaced or, if v == routers, added.
+     */
+    Topology with( int v, Row row )
+    {
+        int n = Math.max( routers, v + 1 );
+        Row[][] directory = pages;
+        if( v / PAGE >= directory.length )
+        {
+            directory = Arrays.copyOf( directory, v / PAGE + 1 );
+            directory[ v / PAGE ] = new Row[ PAGE ];
+        }
+        else
+            directory = directory.clone( );
+        Row[] page = directory[ v / PAGE ].clone( );
+        Row old = page[ v % PAGE ];
+        page[ v % PAGE ] = row;
+        directory[ v / PAGE ] = page;
+        if( old == null )
+            ids.put( row.name, v );
+        return new Topology( version + 1, n, directory, ids,
+                             fingerprint - ( old == null ? 0 : old.hash ) + row.hash );
+    }
+
+    Row row( int v )
+      { return pages[ v / PAGE ][ v % PAGE ]; }
+
+    /**
+     * Id of the named router in this version, or -1.
+     */
+    public int id( String name )
+    {
+        Integer v = ids.get( name );
+        return v == null || v >= routers ? -1 : v;
+    }
+
+    public String name( int v )
+      { return row( v ).name; }
+
+    public boolean isDown( int v )
+      { return row( v ).down; }
+
+    /**
+     * Recompute the fingerprint from the rows as they are now.
+     */
+    public long checkFingerprint( )
+    {
+        long sum = 0;
+        for( int v = 0; v < routers; v++ )
+            sum += row( v ).hash( );
+        return sum;
+    }
+
+    /**
+     * Shortest path tree from source in this version, into the workspace.
+     */
+    public void spf( int source, SpfWorkspace ws )
+    {
+        spf( source, ws, -1, -1 );
+    }
+
+    /**
+     * Shortest path tree from source in this version as if the link
+     * skipFrom -> skipTo were down, into the workspace.
+     */
+    public void spf( int source, SpfWorkspace ws, int skipFrom, int skipTo )
+    {
+        PathTree t = ws.tree;
+        t.source = source;
+        t.clear( routers );
+        if( isDown( source ) )
+            return;
+        IndexedHeap heap = ws.heap;
+        heap.reset( t.dist, routers );
+        t.dist[ source ] = 0;
+        heap.update( source );
+        while( !heap.isEmpty( ) )
+        {
+            int v = heap.poll( );
+            Row r = row( v );
+            for( int i = 0; i < r.target.length; i++ )
+            {
+                int w = r.target[ i ];
+                if( ( r.flags[ i ] & LinkStore.DOWN ) != 0 || isDown( w ) || v == skipFrom && w == skipTo )
+                    continue;
+                double d = t.dist[ v ] + r.weight[ i ];
+                if( d < t.dist[ w ] )
+                {
+                    t.dist[ w ] = d;
+                    t.prev[ w ] = v;
+                    heap.update( w );
+                }
+                else if( d == t.dist[ w ] && Graph.nearer( t.dist, d, v, t.prev[ w ] ) )
+                    t.prev[ w ] = v;
+            }
+        }
+    }
+
+    /**
+     * Shortest path between two named routers in this version, using this
+     * thread's workspace.
+     * @throws NoSuchElementException if either router is not in this version.
+     */
+    public Route route( String from, String to )
+    {
+        int v = id( from ), w = id( to );
+        if( v < 0 || w < 0 )
+            throw new NoSuchElementException( "One of the vertices given is invalid" );
+        SpfWorkspace ws = WORKSPACES.get( );
+        spf( v, ws );
+        PathTree t = ws.tree;
+        if( t.dist[ w ] == Graph.INFINITY )
+            return new Route( this, v, w, null, Graph.INFINITY );
+        int length = 1;
+        for( int u = w; u != v; u = t.prev[ u ] )
+            length++;
+        int[] hops = new int[ length ];
+        for( int u = w; length > 0; u = t.prev[ u ] )
+            hops[ --length ] = u;
+        return new Route( this, v, w, hops, t.dist[ w ] );
+    }
+
+    /**
+     * Cost of link v -> w if it and w are up, else INFINITY.
+     */
+    public double usableCost( int v, int w )
+    {
+        Row r = row( v );
+        for( int i = 0; i < r.target.length; i++ )
+            if( r.target[ i ] == w )
+                return ( r.flags[ i ] & LinkStore.DOWN ) != 0 || isDown( w ) ? Graph.INFINITY : r.weight[ i ];
+        return Graph.INFINITY;
+    }
+}
+
+// Backup next hops for every router and destination, worked out from one
+// published version so that traffic can be routed around a failed link at
+// once, before any SPF runs. The SPF from every router gives its primary
+// next hops, and the same runs serve as the SPF from each neighbour that the
+// loop-free conditions need. For router S, destination D and primary next
+// hop E, in order of preference:
+//   LFA     a neighbour N with d(N,D) < d(N,S) + d(S,D), whose own shortest
+//           path to D cannot lead back through S (RFC 5286); one that also
+//           has d(N,D) < d(N,E) + d(E,D) keeps clear of E as well
+//   remote  a PQ node P for the link S -> E (RFC 7490): S reaches P through
+//           a neighbour N whose path to P avoids S, and P's path to E
+//           avoids the link, so traffic is tunnelled to P
+//   TI      the path from S to E once the link is gone, from one more SPF,
+//           as a list of segments (as TI-LFA): stretches that primary
+//           forwarding already follows, and single links
+// Remote and TI repairs are kept per link and lead to E, from where primary
+// forwarding to D never uses S -> E. Like the routing table, the backups
+// take memory in the square of the routers.
+final class FastReroute
+{
+    public static final int NONE = 0, LFA = 1, NODE_LFA = 2, REMOTE = 3, TI = 4;
+    public static final String[] KINDS = { "unprotected", "LFA", "node-protecting LFA", "remote LFA", "TI-LFA" };
+    public static final int LIMIT = 5000;          // Most routers backups are worked out for, as the
+                                                   // tables grow with the square of the routers
+    private static final int SLOT = 0xffffff;      // Low bits of a backup: the link's slot in the row
+    private static final double EPSILON = 1e-6;    // Sums closer than this may be the same path added up
+                                                   // in another order, so are taken as equal
+
+    public final long    version;
+    public final int     routers;
+    public final double  buildMillis;
+    public final long[]  protectedBy = new long[ KINDS.length ];   // Destinations, by kind of backup
+    public final long    extraSpfs;                // Post-convergence SPFs for TI repairs
+    private final Topology topology;
+    private final int[][]   nextHop;       // nextHop[ s ][ d ], -1 if none
+    private final int[][]   backup;        // kind << 24 | slot of the first link in s's row, or -1
+    private final int[][][] repair;        // Segments of the repair of each link of s, or null
+    private final AtomicLongArray counts = new AtomicLongArray( KINDS.length );
+    private final AtomicLong spfs = new AtomicLong( );
+
+    // Fork-join task running body for rows lo..hi-1
+    private static final class Rows extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi;
+        private final IntConsumer body;
+
+        Rows( int lo, int hi, IntConsumer body )
+          { this.lo = lo; this.hi = hi; this.body = body; }
+
+        @Override
+        protected void compute( )
+        {
+            if( hi - lo > 1 )
+            {
+                int mid = ( lo + hi ) >>> 1;
+                invokeAll( new Rows( lo, mid, body ), new Rows( mid, hi, body ) );
+            }
+            else if( lo < hi )
+                body.accept( lo );
+        }
+    }
+
+    /**
+     * Work out primaries and backups for version t on a fork-join pool of
+     * the given parallelism: first one SPF per router, then the backups of
+     * each router from all of their distances.
+     */
+    FastReroute( Topology t, int parallelism )
+    {
+        long start = System.nanoTime( );
+        topology = t;
+        version = t.version;
+        routers = t.routers;
+        nextHop = new int[ routers ][];
+        backup = new int[ routers ][];
+        repair = new int[ routers ][][];
+        double[][] cost = new double[ routers ][];
+        ThreadLocal<SpfWorkspace> workspaces = ThreadLocal.withInitial( SpfWorkspace::new );
+
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        try
+        {
+            pool.invoke( new Rows( 0, routers, s -> {
+                SpfWorkspace ws = workspaces.get( );
+                topology.spf( s, ws );
+                nextHop[ s ] = RoutingTable.nextHops( ws.tree, ws );
+                cost[ s ] = ws.tree.dist.clone( );
+            } ) );
+            pool.invoke( new Rows( 0, routers, s -> backups( s, cost, workspaces.get( ) ) ) );
+        }
+        finally
+          { pool.shutdown( ); }
+        for( int k = 0; k < KINDS.length; k++ )
+            protectedBy[ k ] = counts.get( k );
+        extraSpfs = spfs.get( );
+        buildMillis = ( System.nanoTime( ) - start ) / 1e6;
+    }
+
+    /**
+     * Choose the backup of router s for every destination it has a next
+     * hop for, working out repairs for its links as they are needed.
+     */
+    private void backups( int s, double[][] cost, SpfWorkspace ws )
+    {
+        Topology.Row r = topology.row( s );
+        double[] ds = cost[ s ];
+        int[] hop = nextHop[ s ];
+        int[] chosen = new int[ routers ];
+        int[][] repairs = new int[ r.target.length ][];
+        int[] repairKind = new int[ r.target.length ];    // 0 until tried, -1 if there is none
+        long[] count = new long[ KINDS.length ];
+        for( int d = 0; d < routers; d++ )
+        {
+            chosen[ d ] = -1;
+            int e = hop[ d ];
+            if( e < 0 )
+                continue;
+
+            // Best LFA, preferring one that also avoids e
+            int best = -1;
+            boolean node = false;
+            double bestCost = Graph.INFINITY;
+            for( int i = 0; i < r.target.length; i++ )
+            {
+                int m = r.target[ i ];
+                double[] dm = cost[ m ];
+                if( m == e || !usable( r, i ) || dm[ d ] == Graph.INFINITY || !less( dm[ d ], dm[ s ] + ds[ d ] ) )
+                    continue;
+                boolean avoidsE = d != e && less( dm[ d ], dm[ e ] + cost[ e ][ d ] );
+                double c = r.weight[ i ] + dm[ d ];
+                if( avoidsE && !node || avoidsE == node && c < bestCost )
+                {
+                    best = i;
+                    node = avoidsE;
+                    bestCost = c;
+                }
+            }
+            int kind;
+            if( best >= 0 )
+            {
+                kind = node ? NODE_LFA : LFA;
+                chosen[ d ] = kind << 24 | best;
+            }
+            else
+            {
+                int i = slot( r, e );
+                if( repairKind[ i ] == 0 )
+                {
+                    repairs[ i ] = remote( s, i, cost );
+                    repairKind[ i ] = REMOTE;
+                    if( repairs[ i ] == null )
+                    {
+                        repairs[ i ] = postConvergence( s, i, ws );
+                        repairKind[ i ] = repairs[ i ] == null ? -1 : TI;
+                    }
+                }
+                kind = Math.max( NONE, repairKind[ i ] );
+                if( kind != NONE )
+                    chosen[ d ] = kind << 24 | i;
+            }
+            count[ kind ]++;
+        }
+        backup[ s ] = chosen;
+        repair[ s ] = repairs;
+        for( int k = 0; k < KINDS.length; k++ )
+            counts.addAndGet( k, count[ k ] );
+    }
+
+    /**
+     * Repair of link s -> e (slot i) by the cheapest PQ node: a tunnel
+     * through neighbour N to P, as segments, or null if there is none.
+     */
+    private int[] remote( int s, int i, double[][] cost )
+    {
+        Topology.Row r = topology.row( s );
+        int e = r.target[ i ];
+        double[] ds = cost[ s ];
+        int bestP = -1, bestN = -1;
+        double best = Graph.INFINITY;
+        for( int p = 0; p < routers; p++ )
+        {
+            double[] dp = cost[ p ];
+            if( p == s || dp[ e ] == Graph.INFINITY || !less( dp[ e ], dp[ s ] + ds[ e ] ) )
+                continue;       // Not in the Q-space of e
+            for( int j = 0; j < r.target.length; j++ )
+            {
+                double[] dm = cost[ r.target[ j ] ];
+                if( j == i || !usable( r, j ) || dm[ p ] == Graph.INFINITY || !less( dm[ p ], dm[ s ] + ds[ p ] ) )
+                    continue;   // Not in the extended P-space through this neighbour
+                double c = r.weight[ j ] + dm[ p ] + dp[ e ];
+                if( c < best )
+                {
+                    best = c;
+                    bestP = p;
+                    bestN = j;
+                }
+            }
+        }
+        if( bestP < 0 )
+            return null;
+        int m = r.target[ bestN ];
+        return bestP == m ? new int[ ] { ~m } : new int[ ] { ~m, bestP };
+    }
+
+    /**
+     * Repair of link s -> e (slot i) along the shortest path from s to e
+     * without it, or null if there is none. The path is cut into segments:
+     * a link, written ~v, for a hop primary forwarding would not take, and
+     * otherwise the furthest router that primary forwarding follows the
+     * path to.
+     */
+    private int[] postConvergence( int s, int i, SpfWorkspace ws )
+    {
+        int e = topology.row( s ).target[ i ];
+        topology.spf( s, ws, s, e );
+        spfs.incrementAndGet( );
+        PathTree t = ws.tree;
+        if( t.dist[ e ] == Graph.INFINITY )
+            return null;
+        int length = 1;
+        for( int u = e; u != s; u = t.prev[ u ] )
+            length++;
+        int[] path = new int[ length ];
+        for( int u = e; length > 0; u = t.prev[ u ] )
+            path[ --length ] = u;
+
+        int[] segments = new int[ path.length ];
+        int count = 0;
+        segments[ count++ ] = ~path[ 1 ];
+        for( int at = 1; at < path.length - 1; )
+        {
+            int far = at;
+            while( far + 1 < path.length && follows( path, at, far + 1 ) )
+                far++;
+            if( far == at )
+                segments[ count++ ] = ~path[ ++at ];
+            else
+                segments[ count++ ] = path[ at = far ];
+        }
+        return Arrays.copyOf( segments, count );
+    }
+
+    /**
+     * True if primary forwarding from path[ from ] to path[ to ] takes
+     * exactly the routers of the path in between.
+     */
+    private boolean follows( int[] path, int from, int to )
+    {
+        for( int k = from, x = path[ from ]; x != path[ to ]; )
+        {
+            x = nextHop[ x ][ path[ to ] ];
+            if( x != path[ ++k ] )
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean less( double a, double b )
+    {
+        return a < b - EPSILON;
+    }
+
+    private static boolean usable( Topology.Row r, int i )
+    {
+        return ( r.flags[ i ] & LinkStore.DOWN ) == 0;
+    }
+
+    private static int slot( Topology.Row r, int w )
+    {
+        for( int i = 0; ; i++ )
+            if( r.target[ i ] == w )
+                return i;
+    }
+
+    /**
+     * Forward from s to d in the later version now as the routers would
+     * with these tables: each takes its primary next hop while that link is
+     * usable in now, and its backup when it is not. Returns the route with
+     * its cost added up along the way, a route without hops if d was out of
+     * reach already, or null if the backups do not get through (more than
+     * they protect has failed, or the routers are new).
+     */
+    public Topology.Route route( Topology now, int s, int d )
+    {
+        if( s >= routers || d >= routers )
+            return null;
+        if( s != d && nextHop[ s ][ d ] < 0 )
+            return new Topology.Route( now, s, d, null, Graph.INFINITY );
+        int[] hops = new int[ 16 ];
+        int length = 0;
+        int[] targets = new int[ 16 ];    // Segments still to go, the next on top
+        int depth = 0;
+        hops[ length++ ] = s;
+        targets[ depth++ ] = d;
+        double cost = 0;
+        int x = s;
+        for( int steps = 0; depth > 0; steps++ )
+        {
+            if( steps > 4 * routers + 16 )
+                return null;                // Going round in circles
+            int y = targets[ --depth ];
+            int next;
+            if( y < 0 )
+                next = ~y;
+            else if( x == y )
+                continue;
+            else
+            {
+                targets[ depth++ ] = y;
+                next = nextHop[ x ][ y ];
+                if( next < 0 )
+                    return null;
+                if( now.usableCost( x, next ) == Graph.INFINITY )
+                {
+                    int b = backup[ x ][ y ];
+                    if( b < 0 )
+                        return null;
+                    int[] segments = b >>> 24 <= NODE_LFA ? new int[ ] { ~topology.row( x ).target[ b & SLOT ] }
+                                                          : repair[ x ][ b & SLOT ];
+                    if( depth + segments.length > targets.length )
+                        targets = Arrays.copyOf( targets, 2 * ( depth + segments.length ) );
+                    for( int k = segments.length - 1; k >= 0; k-- )
+                        targets[ depth++ ] = segments[ k ];
+                    continue;
+                }
+            }
+            double c = now.usableCost( x, next );
+            if( c == Graph.INFINITY )
+                return null;
+            cost += c;
+            x = next;
+            if( length == hops.length )
+                hops = Arrays.copyOf( hops, 2 * length );
+            hops[ length++ ] = x;
+        }
+        return new Topology.Route( now, s, d, Arrays.copyOf( hops, length ), cost );
+    }
+}
+
+// Synthetic topologies for benchmarks. All links are undirected with costs
+// of two decimals, as in a network file, routers are named R0, R1, ... and
+// the same kind, size and seed always give the same topology.
+//   grid       routers on a square mesh, each linked to its four neighbours
+//   geometric  routers scattered in the unit square and linked to every
+//              router within a radius that gives about six neighbours;
+//              the cost grows with the distance
+//   scalefree  preferential attachment: each new router links to two
+//              existing ones, picked in proportion to their degree
+//   isp        areas of 100 routers, each a ring with random chords, whose
+//              first two routers are area borders on a meshed backbone of
+//              cheaper links; area( ) numbers them from 1
+class TopologyGenerator
+{
+    public static final String[] KINDS = { "grid", "geometric", "scalefree", "isp" };
+    private static final int AREA = 100;
+
+    public final String kind;
+    public final int routers;
+    private final Random r;
+    private int[] from = new int[ 16 ];
+    private int[] to = new int[ 16 ];
+    private double[] cost = new double[ 16 ];
+    private int edges;
+
+    public TopologyGenerator( String kind, int routers, long seed )
+    {
+        if( routers < 2 )
+            throw new IllegalArgumentException( "A topology needs at least 2 routers" );
+        this.kind = kind;
+        this.routers = routers;
+        r = new Random( seed );
+        switch( kind )
+        {
+          case "grid": grid( ); break;
+          case "geometric": geometric( ); break;
+          case "scalefree": scaleFree( ); break;
+          case "isp": isp( ); break;
+          default: throw new IllegalArgumentException( "Unknown topology " + kind );
+        }
+    }
+
+    public int edges( )
+      { return edges; }
+
+    public String name( int v )
+      { return "R" + v; }
+
+    public int from( int edge )
+      { return from[ edge ]; }
+
+    /**
+     * OSPF area of router v: its area from 1 up for isp, else the backbone.
+     */
+    public int area( int v )
+      { return kind.equals( "isp" ) ? v / AREA + 1 : Areas.BACKBONE; }
+
+    public int to( int edge )
+      { return to[ edge ]; }
+
+    /**
+     * Build a graph holding the topology.
+     */
+    public Graph build( )
+    {
+        String[] names = new String[ routers ];
+        for( int v = 0; v < routers; v++ )
+            names[ v ] = name( v );
+        Graph g = new Graph( );
+        g.bulkLoad( names, from, to, cost, edges );
+        return g;
+    }
+
+    /**
+     * Write the topology as a network file.
+     */
+    public void write( String fileName ) throws IOException
+    {
+        try( PrintStream file = new PrintStream( new BufferedOutputStream( new FileOutputStream( fileName ), 1 << 16 ), false ) )
+        {
+            for( int i = 0; i < edges; i++ )
+                file.println( name( from[ i ] ) + " " + name( to[ i ] ) + " " + cost[ i ] );
+            if( file.checkError( ) )
+                throw new IOException( "Could not write " + fileName );
+        }
+    }
+
+    private void link( int v, int w, double c )
+    {
+        if( v == w )
+            return;
+        if( edges == from.length )
+        {
+            from = Arrays.copyOf( from, edges * 2 );
+            to = Arrays.copyOf( to, edges * 2 );
+            cost = Arrays.copyOf( cost, edges * 2 );
+        }
+        from[ edges ] = v;
+        to[ edges ] = w;
+        cost[ edges ] = c;
+        edges++;
+    }
+
+    private double randomCost( int hundredths )
+      { return ( 1 + r.nextInt( hundredths ) ) / 100.0; }
+
+    private void grid( )
+    {
+        int side = (int) Math.ceil( Math.sqrt( routers ) );
+        for( int v = 0; v < routers; v++ )
+        {
+            if( v % side + 1 < side && v + 1 < routers )
+                link( v, v + 1, randomCost( 1000 ) );
+            if( v + side < routers )
+                link( v, v + side, randomCost( 1000 ) );
+        }
+    }
+
+    private void geometric( )
+    {
+        double radius = Math.sqrt( 6.0 / ( Math.PI * routers ) );
+        int cells = Math.max( 1, (int) ( 1 / radius ) );
+        double[] x = new double[ routers ];
+        double[] y = new double[ routers ];
+        int[] cell = new int[ routers ];
+        int[] start = new int[ cells * cells + 1 ];
+        for( int v = 0; v < routers; v++ )
+        {
+            x[ v ] = r.nextDouble( );
+            y[ v ] = r.nextDouble( );
+            cell[ v ] = Math.min( cells - 1, (int) ( y[ v ] * cells ) ) * cells
+                      + Math.min( cells - 1, (int) ( x[ v ] * cells ) );
+            start[ cell[ v ] + 1 ]++;
+        }
+        for( int c = 0; c < cells * cells; c++ )
+            start[ c + 1 ] += start[ c ];
+        int[] byCell = new int[ routers ];
+        int[] next = Arrays.copyOf( start, start.length );
+        for( int v = 0; v < routers; v++ )
+            byCell[ next[ cell[ v ] ]++ ] = v;
+
+        // A cell is at least radius wide, so neighbours lie in adjacent cells
+        for( int v = 0; v < routers; v++ )
+        {
+            int cy = cell[ v ] / cells, cx = cell[ v ] % cells;
+            for( int ny = Math.max( 0, cy - 1 ); ny <= Math.min( cells - 1, cy + 1 ); ny++ )
+                for( int nx = Math.max( 0, cx - 1 ); nx <= Math.min( cells - 1, cx + 1 ); nx++ )
+                    for( int i = start[ ny * cells + nx ]; i < start[ ny * cells + nx + 1 ]; i++ )
+                    {
+                        int w = byCell[ i ];
+                        double d = Math.hypot( x[ v ] - x[ w ], y[ v ] - y[ w ] );
+                        if( w > v && d <= radius )
+                            link( v, w, Math.max( 1, Math.round( d / radius * 1000 ) ) / 100.0 );
+                    }
+        }
+    }
+
+    private void scaleFree( )
+    {
+        int[] ends = new int[ 16 ];
+        int count = 0;
+        for( int v = 1; v < routers; v++ )
+        {
+            int picks = Math.min( v, 2 );
+            int first = -1;
+            for( int k = 0; k < picks; k++ )
+            {
+                int w;
+                do
+                    w = count == 0 ? 0 : ends[ r.nextInt( count ) ];
+                while( w == first && v > 1 );
+                first = w;
+                link( v, w, randomCost( 1000 ) );
+                if( count + 2 > ends.length )
+                    ends = Arrays.copyOf( ends, ends.length * 2 );
+                ends[ count++ ] = v;
+                ends[ count++ ] = w;
+            }
+        }
+    }
+
+    private void isp( )
+    {
+        int areas = ( routers + AREA - 1 ) / AREA;
+        int[] borders = new int[ areas * 2 ];
+        int count = 0;
+        for( int a = 0; a < areas; a++ )
+        {
+            int first = a * AREA, size = Math.min( routers, first + AREA ) - first;
+            for( int i = 0; i < size; i++ )
+            {
+                if( size > 1 )
+                    link( first + i, first + ( i + 1 ) % size, randomCost( 1000 ) );
+                link( first + i, first + r.nextInt( size ), randomCost( 1000 ) );
+            }
+            for( int i = 0; i < Math.min( 2, size ); i++ )
+                borders[ count++ ] = first + i;
+        }
+        for( int i = 0; i < count && count > 1; i++ )
+        {
+            link( borders[ i ], borders[ ( i + 1 ) % count ], randomCost( 200 ) );
+            link( borders[ i ], borders[ r.nextInt( count ) ], randomCost( 200 ) );
+        }
+    }
+}
+
+// Benchmark harness, built in so the program stays one file with no build
+// or dependencies. Every combination of topology, size and queue is timed
+// for each benchmark: a warmup period, then a number of timed samples, each
+// an average over as many operations as fit in the sample time. Results go
+// out as JSON in the layout JMH uses (benchmark, mode, params, primaryMetric)
+// so they can be tracked and compared with the same tools.
+//   ospf       full shortest path tree from a random router, cache off;
+//              heap=radix runs it on integer metrics with a radix heap,
+//              offheap=on with the links in direct buffers
+//   parallel   the same by delta-stepping, for each delta and thread count,
+//              with its speedup over Dijkstra's algorithm on the 4-ary heap
+//   route      point-to-point path between random routers, by each method
+//   hierarchy  path request answered from a contraction hierarchy; its
+//              ordering and customizing times and size go in the params
+//   churn      one link toggled down or up, then a path tree from a fixed
+//              router brought up to date (repaired, unless incremental=off)
+//   areas      one link toggled, then a path request, over one flat area
+//              and then over the topology's OSPF areas (isp has them)
+//   reachable  one link toggled, then the full reachable listing
+//   print      the full print listing
+//   load       a network file parsed into a new graph, with its links on
+//              the heap or off it (offheap=off,on); bytes held per router
+//              and per link, and heap grown per router, go in the params
+//   restore    a snapshot of the same graph mapped into a new graph, likewise
+class Benchmark
+{
+    public static final String[] NAMES = { "ospf", "parallel", "route", "hierarchy", "backups", "churn", "areas", "reachable",
+                                           "print", "load", "restore" };
+    private static final int REACHABLE_LIMIT = 5000;    // Listing is quadratic past this
+    // Two-sided 99.9% Student t for 1 to 10 degrees of freedom, as JMH
+    // reports; more samples reuse the last (a slightly wide interval)
+    private static final double[] T999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+
+    private interface Operation
+    {
+        void run( int i ) throws Exception;
+    }
+
+    private String[] topologies = TopologyGenerator.KINDS;
+    private int[] sizes = { 100, 1000, 10000, 100000 };
+    private String[] heaps = { "4" };
+    private String[] incremental = { "on" };
+    private String[] methods = PointToPoint.METHODS;
+    private int[] threads = coreCounts( Runtime.getRuntime( ).availableProcessors( ) );
+    private String[] deltas = { "0" };
+    private String[] offHeap = { "off" };
+    private String[] benchmarks = NAMES;
+    private long warmupMillis = 500;
+    private long sampleMillis = 200;
+    private int samples = 5;
+    private long seed = 1;
+    private String outFile;
+    private final PrintStream discard = new PrintStream( OutputStream.nullOutputStream( ) );
+    private final List<String> results = new ArrayList<String>( );
+
+    /**
+     * Read key=value options: topology, routers, heap, incremental, method,
+     * threads, delta, offheap and bench take comma separated lists; warmup and time are milliseconds
+     * (time per sample); samples, seed and out (a file) take one value.
+     */
+    public Benchmark( String[] options )
+    {
+        for( String option : options )
+        {
+            int eq = option.indexOf( '=' );
+            if( eq < 0 )
+                throw new IllegalArgumentException( "Expected key=value, not " + option );
+            String key = option.substring( 0, eq ), value = option.substring( eq + 1 );
+            String[] list = value.split( "," );
+            switch( key )
+            {
+              case "topology": topologies = list; break;
+              case "routers":
+                sizes = new int[ list.length ];
+                for( int i = 0; i < list.length; i++ )
+                    sizes[ i ] = (int) Double.parseDouble( list[ i ] );   // Allows 1e6
+                break;
+              case "heap": heaps = list; break;
+              case "incremental": incremental = list; break;
+              case "method": methods = list; break;
+              case "threads":
+                threads = new int[ list.length ];
+                for( int i = 0; i < list.length; i++ )
+                    threads[ i ] = Integer.parseInt( list[ i ] );
+                break;
+              case "delta": deltas = list; break;
+              case "offheap": offHeap = list; break;
+              case "bench": benchmarks = list; break;
+              case "warmup": warmupMillis = Long.parseLong( value ); break;
+              case "time": sampleMillis = Long.parseLong( value ); break;
+              case "samples": samples = Math.max( 1, Integer.parseInt( value ) ); break;
+              case "seed": seed = Long.parseLong( value ); break;
+              case "out": outFile = value; break;
+              default: throw new IllegalArgumentException( "Unknown benchmark option " + key );
+            }
+        }
+    }
+
+    /**
+     * 1, 2, 4 and so on below cores, then cores itself.
+     */
+    private static int[] coreCounts( int cores )
+    {
+        int[] counts = new int[ 0 ];
+        for( int c = 1; c < cores; c *= 2 )
+        {
+            counts = Arrays.copyOf( counts, counts.length + 1 );
+            counts[ counts.length - 1 ] = c;
+        }
+        counts = Arrays.copyOf( counts, counts.length + 1 );
+        counts[ counts.length - 1 ] = cores;
+        return counts;
+    }
+
+    /**
+     * Run every benchmark asked for and write the results.
+     */
+    public void run( ) throws Exception
+    {
+        for( String kind : topologies )
+            for( int routers : sizes )
+            {
+                TopologyGenerator topology = new TopologyGenerator( kind, routers, seed );
+                for( String bench : benchmarks )
+                    run( bench, topology );
+            }
+
+        try( PrintStream json = outFile == null ? new PrintStream( new FileOutputStream( FileDescriptor.out ), false )
+                                                : new PrintStream( new FileOutputStream( outFile ), false ) )
+        {
+            json.println( "[" );
+            for( int i = 0; i < results.size( ); i++ )
+                json.println( results.get( i ) + ( i + 1 < results.size( ) ? "," : "" ) );
+            json.println( "]" );
+        }
+    }
+
+    private void run( String bench, TopologyGenerator topology ) throws Exception
+    {
+        int n = topology.routers;
+        Random r = new Random( seed );
+        String[] sources = new String[ 64 ];
+        for( int i = 0; i < sources.length; i++ )
+            sources[ i ] = topology.name( r.nextInt( n ) );
+        String[] ends = new String[ 2 * Math.min( 1024, topology.edges( ) ) ];
+        for( int i = 0; i < ends.length; i += 2 )
+        {
+            int e = r.nextInt( topology.edges( ) );
+            ends[ i ] = topology.name( topology.from( e ) );
+            ends[ i + 1 ] = topology.name( topology.to( e ) );
+        }
+        Graph g = topology.build( );
+        g.setOutput( discard );
+
+        switch( bench )
+        {
+          case "ospf":
+            g.setCacheCapacity( 0 );
+            for( String storage : offHeap )
+                for( String heap : heaps )
+                {
+                    g.setOffHeap( storage.equals( "on" ) );
+                    g.setIntegerMetrics( heap.equals( "radix" ) );
+                    if( !heap.equals( "radix" ) )
+                        g.setHeapArity( heap.equals( "pq" ) ? Graph.PRIORITY_QUEUE : Integer.parseInt( heap ) );
+                    report( bench, topology, "\"heap\" : \"" + heap + "\", \"offheap\" : \"" + storage + "\"",
+                            measure( i -> g.ospf( sources[ i % sources.length ] ) ) );
+                }
+            break;
+
+          case "parallel":
+          {
+            g.setCacheCapacity( 0 );
+            double[] sequential = measure( i -> g.ospf( sources[ i % sources.length ] ) );
+            report( bench, topology, "\"threads\" : \"0\", \"delta\" : \"-\", \"speedup\" : \"1.00\"", sequential );
+            for( String delta : deltas )
+                for( int count : threads )
+                {
+                    g.setDeltaStepping( count, Double.parseDouble( delta ) );
+                    double[] score = measure( i -> g.ospf( sources[ i % sources.length ] ) );
+                    report( bench, topology, String.format( "\"threads\" : \"%d\", \"delta\" : \"%s\", \"speedup\" : \"%.2f\"",
+                                                            count, delta, mean( sequential ) / mean( score ) ), score );
+                }
+            g.setDeltaStepping( 0, 0 );
+            break;
+          }
+
+          case "route":
+            for( String method : methods )
+            {
+                int m = Arrays.asList( PointToPoint.METHODS ).indexOf( method );
+                if( m < 0 )
+                    throw new IllegalArgumentException( "Unknown route method " + method );
+                report( bench, topology, "\"method\" : \"" + method + "\"",
+                        measure( i -> g.route( sources[ i % sources.length ], sources[ ( i * 7 + 1 ) % sources.length ], m ) ) );
+            }
+            break;
+
+          case "hierarchy":
+          {
+            g.setHierarchy( true );
+            ContractionHierarchy h = g.hierarchy( );
+            Command[] requests = new Command[ sources.length ];
+            for( int i = 0; i < requests.length; i++ )
+                requests[ i ] = Command.parse( "path " + sources[ i ] + " " + sources[ ( i * 7 + 1 ) % sources.length ] );
+            report( bench, topology, String.format( "\"arcs\" : \"%d\", \"bytes\" : \"%d\", \"orderMillis\" : \"%.1f\", "
+                                                    + "\"customizeMillis\" : \"%.1f\"", h.arcs( ), h.bytes( ),
+                                                    h.buildMillis, h.customizeMillis ),
+                    measure( i -> g.execute( requests[ i % requests.length ] ) ) );
+            break;
+          }
+
+          case "backups":
+          {
+            if( n > FastReroute.LIMIT )
+            {
+                System.err.println( "Skipping backups on " + n + " routers" );
+                break;
+            }
+            g.setFastReroute( true );
+            FastReroute f = g.awaitBackups( );
+            long pairs = 0;
+            for( long k : f.protectedBy )
+                pairs += k;
+            StringBuilder extra = new StringBuilder( );
+            for( int k = 0; k < FastReroute.KINDS.length; k++ )
+                extra.append( String.format( "\"%s\" : \"%.3f\", ", FastReroute.KINDS[ k ],
+                                             f.protectedBy[ k ] / (double) Math.max( 1, pairs ) ) );
+            extra.append( "\"parallelism\" : \"" + Runtime.getRuntime( ).availableProcessors( ) + "\"" );
+            Topology t = g.current( );
+            report( bench, topology, extra.toString( ),
+                    measure( i -> new FastReroute( t, Runtime.getRuntime( ).availableProcessors( ) ) ) );
+            break;
+          }
+
+          case "churn":
+            for( String heap : heaps )
+                for( String mode : incremental )
+                {
+                    Graph fresh = topology.build( );
+                    fresh.setOutput( discard );
+                    fresh.setHeapArity( heap.equals( "pq" ) ? Graph.PRIORITY_QUEUE : Integer.parseInt( heap ) );
+                    fresh.setIncremental( !mode.equals( "off" ) );
+                    boolean[] down = new boolean[ ends.length / 2 ];
+                    report( bench, topology, "\"heap\" : \"" + heap + "\", \"incremental\" : \"" + mode + "\"",
+                            measure( i -> {
+                                toggle( fresh, ends, down, i );
+                                fresh.ospf( sources[ 0 ] );
+                            } ) );
+                }
+            break;
+
+          case "areas":
+          {
+            // Link churn with path requests, over one flat area and over the topology's areas
+            for( String mode : new String[]{ "off", "on" } )
+            {
+                Graph fresh = topology.build( );
+                fresh.setOutput( discard );
+                if( mode.equals( "on" ) )
+                    for( int v = 0; v < n; v++ )
+                        fresh.setArea( topology.name( v ), topology.area( v ) );
+                Command[] requests = new Command[ sources.length ];
+                for( int i = 0; i < requests.length; i++ )
+                    requests[ i ] = Command.parse( "path " + sources[ i ] + " " + sources[ ( i * 7 + 1 ) % sources.length ] );
+                boolean[] down = new boolean[ ends.length / 2 ];
+                report( bench, topology, "\"areas\" : \"" + mode + "\"", measure( i -> {
+                    toggle( fresh, ends, down, i );
+                    fresh.execute( requests[ i % requests.length ] );
+                } ) );
+            }
+            break;
+          }
+
+          case "reachable":
+          {
+            if( n > REACHABLE_LIMIT )
+            {
+                System.err.println( "Skipping reachable on " + n + " routers" );
+                break;
+            }
+            boolean[] down = new boolean[ ends.length / 2 ];
+            report( bench, topology, null, measure( i -> {
+                toggle( g, ends, down, i );
+                g.reachable( );
+            } ) );
+            break;
+          }
+
+          case "print":
+            report( bench, topology, null, measure( i -> g.print( ) ) );
+            break;
+
+          case "load":
+          case "restore":
+          {
+            File file = File.createTempFile( "ospf-bench", bench.equals( "load" ) ? ".txt" : ".snap" );
+            file.deleteOnExit( );
+            String name = file.getPath( );
+            if( bench.equals( "load" ) )
+                topology.write( name );
+            else
+                g.save( name );
+            for( String storage : offHeap )
+            {
+                boolean direct = storage.equals( "on" );
+                double[] score = measure( i -> load( bench, name, direct ) );
+                long before = usedHeap( );
+                Graph kept = load( bench, name, direct );
+                double heap = ( usedHeap( ) - before ) / (double) n;
+                double[] bytes = kept.footprint( );
+                report( bench, topology, String.format( "\"offheap\" : \"%s\", \"bytesPerRouter\" : \"%.1f\", "
+                                                        + "\"bytesPerLink\" : \"%.1f\", \"heapPerRouter\" : \"%.1f\"",
+                                                        storage, bytes[ 0 ], bytes[ 1 ], heap ), score );
+            }
+            file.delete( );
+            break;
+          }
+
+          default:
+            throw new IllegalArgumentException( "Unknown benchmark " + bench );
+        }
+    }
+
+    /**
+     * Read a network file (for bench load) or snapshot into a new graph.
+     */
+    private static Graph load( String bench, String file, boolean offHeap ) throws IOException
+    {
+        Graph g = new Graph( );
+        g.setOffHeap( offHeap );
+        if( bench.equals( "load" ) )
+            new TopologyLoader( file ).loadInto( g );
+        else
+            g.load( file );
+        return g;
+    }
+
+    /**
+     * Heap in use, in bytes, once the collector has run.
+     */
+    private static long usedHeap( )
+    {
+        Runtime runtime = Runtime.getRuntime( );
+        for( int i = 0; i < 3; i++ )
+            System.gc( );
+        return runtime.totalMemory( ) - runtime.freeMemory( );
+    }
+
+    /**
+     * Flip the up/down state of the i-th chosen link.
+     */
+    private static void toggle( Graph g, String[] ends, boolean[] down, int i )
+    {
+        int k = i % down.length;
+        if( down[ k ] )
+            g.edgeup( ends[ 2 * k ], ends[ 2 * k + 1 ] );
+        else
+            g.edgedown( ends[ 2 * k ], ends[ 2 * k + 1 ] );
+        down[ k ] = !down[ k ];
+    }
+
+    /**
+     * Warm up, then time the samples; returns microseconds per operation
+     * for each sample.
+     */
+    private double[] measure( Operation op ) throws Exception
+    {
+        int i = 0;
+        long end = System.nanoTime( ) + warmupMillis * 1000000;
+        do
+            op.run( i++ );
+        while( System.nanoTime( ) < end );
+
+        double[] score = new double[ samples ];
+        for( int s = 0; s < samples; s++ )
+        {
+            long start = System.nanoTime( ), now;
+            int ops = 0;
+            do
+            {
+                op.run( i++ );
+                ops++;
+            }
+            while( ( now = System.nanoTime( ) ) - start < sampleMillis * 1000000 );
+            score[ s ] = ( now - start ) / 1e3 / ops;
+        }
+        return score;
+    }
+
+    private static double mean( double[] score )
+    {
+        double mean = 0;
+        for( double s : score )
+            mean += s / score.length;
+        return mean;
+    }
+
+    private void report( String bench, TopologyGenerator topology, String extra, double[] score )
+    {
+        double mean = mean( score ), squares = 0;
+        for( double s : score )
+            squares += ( s - mean ) * ( s - mean );
+        double error = score.length < 2 ? Double.NaN
+            : T999[ Math.min( score.length - 1, T999.length ) - 1 ] * Math.sqrt( squares / ( score.length - 1 ) / score.length );
+
+        StringBuilder raw = new StringBuilder( );
+        for( double s : score )
+            raw.append( raw.length( ) == 0 ? "" : ", " ).append( s );
+        results.add( "  {\n"
+            + "    \"benchmark\" : \"Graph." + bench + "\",\n"
+            + "    \"mode\" : \"avgt\",\n"
+            + "    \"threads\" : 1,\n"
+            + "    \"warmupTime\" : \"" + warmupMillis + " ms\",\n"
+            + "    \"measurementIterations\" : " + score.length + ",\n"
+            + "    \"measurementTime\" : \"" + sampleMillis + " ms\",\n"
+            + "    \"params\" : { \"topology\" : \"" + topology.kind + "\", \"routers\" : \"" + topology.routers
+            + "\", \"links\" : \"" + topology.edges( ) + "\"" + ( extra == null ? "" : ", " + extra ) + " },\n"
+            + "    \"primaryMetric\" : {\n"
+            + "      \"score\" : " + mean + ",\n"
+            + "      \"scoreError\" : " + ( Double.isNaN( error ) ? "\"NaN\"" : error ) + ",\n"
+            + "      \"scoreUnit\" : \"us/op\",\n"
+            + "      \"rawData\" : [ [ " + raw + " ] ]\n"
+            + "    }\n"
+            + "  }" );
+        System.err.printf( "%-9s %-9s %8d %s: %.3f us/op%n", bench, topology.kind, topology.routers,
+                           extra == null ? "" : extra.replace( "\"", "" ).replace( " : ", "=" ), mean );
+    }
+}
+
+// Stress test for concurrent queries: reader threads answer random path
+// queries on whatever version is current while one writer keeps changing
+// links and routers. Every answer is checked on the spot against the version
+// it pinned: each hop must be a usable link there and the costs must add up.
+// A sample of answers is kept with their versions and checked again once the
+// writer stops: each version's rows must still hash to the fingerprint it was
+// published with, and a fresh search on it must find the same cost. Any
+// answer that mixed versions, or a version changed after publishing, fails.
+class StressTest
+{
+    private static final int KEPT = 2000;             // Answers kept per reader
+
+    private String kind = "isp";
+    private int routers = 2000;
+    private int readers = Math.max( 2, Runtime.getRuntime( ).availableProcessors( ) );
+    private double seconds = 5;
+    private long seed = 1;
+
+    private final AtomicLong queries = new AtomicLong( );
+    private final AtomicLong failures = new AtomicLong( );
+    private volatile boolean running = true;
+
+    /**
+     * Read key=value options: topology, routers, readers, seconds, seed.
+     */
+    public StressTest( String[] options )
+    {
+        for( String option : options )
+        {
+            int eq = option.indexOf( '=' );
+            if( eq < 0 )
+                throw new IllegalArgumentException( "Expected key=value, not " + option );
+            String key = option.substring( 0, eq ), value = option.substring( eq + 1 );
+            switch( key )
+            {
+              case "topology": kind = value; break;
+              case "routers": routers = (int) Double.parseDouble( value ); break;
+              case "readers": readers = Integer.parseInt( value ); break;
+              case "seconds": seconds = Double.parseDouble( value ); break;
+              case "seed": seed = Long.parseLong( value ); break;
+              default: throw new IllegalArgumentException( "Unknown stress option " + key );
+            }
+        }
+    }
+
+    /**
+     * Run the test; returns the number of inconsistent answers.
+     */
+    public long run( ) throws InterruptedException, ExecutionException
+    {
+        TopologyGenerator topology = new TopologyGenerator( kind, routers, seed );
+        Graph g = topology.build( );
+        g.setCacheCapacity( 0 );
+        long first = g.publishVersions( ).version;
+
+        ExecutorService pool = Executors.newFixedThreadPool( readers );
+        List<Future<List<Topology.Route>>> kept = new ArrayList<Future<List<Topology.Route>>>( );
+        for( int i = 0; i < readers; i++ )
+        {
+            long readerSeed = seed + 1 + i;
+            kept.add( pool.submit( ( ) -> read( g, new Random( readerSeed ) ) ) );
+        }
+
+        // The writer: this thread, changing the graph until time is up
+        Random r = new Random( seed );
+        long changes = 0;
+        long end = System.nanoTime( ) + (long) ( seconds * 1e9 );
+        while( System.nanoTime( ) < end )
+        {
+            int e = r.nextInt( topology.edges( ) );
+            String a = topology.name( topology.from( e ) ), b = topology.name( topology.to( e ) );
+            // Ups outnumber downs, so most of the network stays connected
+            switch( r.nextInt( 10 ) )
+            {
+              case 0: g.edgedown( a, b ); break;
+              case 1: case 2: g.edgeup( a, b ); break;
+              case 3: case 4: g.addEdge( a, b, ( 1 + r.nextInt( 1000 ) ) / 100.0 ); break;
+              case 5: g.deleteEdge( a, b ); break;
+              case 6: g.vertexdown( a ); break;
+              default: g.vertexup( a ); break;
+            }
+            changes++;
+        }
+        running = false;
+        long last = g.current( ).version;
+
+        long checked = 0;
+        for( Future<List<Topology.Route>> answers : kept )
+            for( Topology.Route route : answers.get( ) )
+            {
+                checked++;
+                if( !consistentLater( route ) )
+                    failures.incrementAndGet( );
+            }
+        pool.shutdown( );
+
+        System.out.printf( "Stress: %d readers answered %d path queries in %.1f s (%.0f/s) over %d versions "
+                           + "from %d changes; %d answers rechecked, %d inconsistent%n",
+                           readers, queries.get( ), seconds, queries.get( ) / seconds, last - first + 1,
+                           changes, checked, failures.get( ) );
+        return failures.get( );
+    }
+
+    /**
+     * Reader loop: answer queries until the writer stops, keeping a sample.
+     */
+    private List<Topology.Route> read( Graph g, Random r )
+    {
+        List<Topology.Route> sample = new ArrayList<Topology.Route>( );
+        long count = 0;
+        while( running )
+        {
+            Topology version = g.current( );
+            String from = version.name( r.nextInt( version.routers ) );
+            String to = version.name( r.nextInt( version.routers ) );
+            Topology.Route route = version.route( from, to );
+            count++;
+            if( !consistentNow( route ) )
+                failures.incrementAndGet( );
+            // Keep every answer at first, then fewer and fewer
+            if( sample.size( ) < KEPT )
+                sample.add( route );
+            else if( r.nextDouble( ) * count < KEPT )
+                sample.set( r.nextInt( KEPT ), route );
+        }
+        queries.addAndGet( count );
+        return sample;
+    }
+
+    /**
+     * The path runs between the routers asked for over usable links of its
+     * version, and their costs add up to the answer.
+     */
+    private static boolean consistentNow( Topology.Route route )
+    {
+        Topology version = route.version;
+        if( route.hops == null )
+            return route.cost == Graph.INFINITY;
+        int[] hops = route.hops;
+        if( hops[ 0 ] != route.from || hops[ hops.length - 1 ] != route.to )
+            return false;
+        double cost = 0;
+        for( int i = 1; i < hops.length; i++ )
+        {
+            double c = version.usableCost( hops[ i - 1 ], hops[ i ] );
+            if( c == Graph.INFINITY )
+                return false;
+            cost += c;
+        }
+        return cost == route.cost;
+    }
+
+    /**
+     * The version is unchanged since it was published, and still gives the
+     * same cost for the same query.
+     */
+    private static boolean consistentLater( Topology.Route route )
+    {
+        Topology version = route.version;
+        if( version.checkFingerprint( ) != version.fingerprint )
+            return false;
+        SpfWorkspace ws = new SpfWorkspace( );
+        version.spf( route.from, ws );
+        return ws.tree.dist[ route.to ] == route.cost;
+    }
+}
+
+// Query service on a loopback TCP port, speaking the console's request
+// language: one request per line, each answer followed by a line holding
+// just "." (answer lines that start with "." get another one in front, as
+// in SMTP). Each connection is served on its own virtual thread where the
+// JVM has them (Java 21 on), else on a pooled platform thread. Clients may
+// pipeline: requests are read as they come, and answers are buffered and
+// only flushed once no more requests are waiting. A client that stops
+// reading fills the socket and stalls its own thread, which then stops
+// reading requests; at most MAX_CONNECTIONS are served at once.
+class QueryServer
+{
+    public static final int MAX_CONNECTIONS = 1024;
+
+    private final Graph graph;
+    private final int port;
+    private final Semaphore slots = new Semaphore( MAX_CONNECTIONS );
+
+    public QueryServer( Graph graph, int port )
+    {
+        this.graph = graph;
+        this.port = port;
+    }
+
+    /**
+     * Serve connections until the process ends.
+     */
+    public void run( ) throws IOException, InterruptedException
+    {
+        graph.publishVersions( );
+        ExecutorService threads = threadPerConnection( );
+        try( ServerSocket listener = new ServerSocket( port, 128, InetAddress.getLoopbackAddress( ) ) )
+        {
+            System.err.println( "Serving on " + listener.getLocalSocketAddress( ) );
+            while( true )
+            {
+                slots.acquire( );
+                Socket client = listener.accept( );
+                threads.execute( ( ) -> serve( client ) );
+            }
+        }
+    }
+
+    /**
+     * One virtual thread per task if this JVM has them, else a cached pool.
+     */
+    private static ExecutorService threadPerConnection( )
+    {
+        try
+        {
+            ExecutorService virtual = (ExecutorService)
+                Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+            System.err.println( "Using virtual threads" );
+            return virtual;
+        }
+        catch( ReflectiveOperationException e )
+        {
+            System.err.println( "No virtual threads on this JVM, using a thread pool" );
+            return Executors.newCachedThreadPool( );
+        }
+    }
+
+    private void serve( Socket client )
+    {
+        ByteArrayOutputStream answer = new ByteArrayOutputStream( 256 );
+        PrintStream to = new PrintStream( answer, false );
+        try( Socket s = client;
+             BufferedReader in = new BufferedReader( new InputStreamReader( s.getInputStream( ), StandardCharsets.UTF_8 ), 1 << 16 );
+             OutputStream out = new BufferedOutputStream( s.getOutputStream( ), 1 << 16 ) )
+        {
+            s.setTcpNoDelay( true );
+            String line;
+            while( ( line = in.readLine( ) ) != null )
+            {
+                answer.reset( );
+                boolean more = graph.serve( Command.parse( line ), to );
+                to.flush( );
+                write( answer.toByteArray( ), out );
+                if( !more )
+                    break;
+                if( !in.ready( ) )
+                    out.flush( );
+            }
+        }
+        catch( IOException e )
+        {
+            // Client went away
+        }
+        finally
+        {
+            slots.release( );
+        }
+    }
+
+    /**
+     * Write one answer, dot-stuffed, and its end marker.
+     */
+    private static void write( byte[] answer, OutputStream out ) throws IOException
+    {
+        boolean lineStart = true;
+        for( byte b : answer )
+        {
+            if( lineStart && b == '.' )
+                out.write( '.' );
+            out.write( b );
+            lineStart = b == '\n';
+        }
+        if( !lineStart )
+            out.write( '\n' );
+        out.write( '.' );
+        out.write( '\n' );
+    }
+}
+
+// Load generator for QueryServer. Each connection keeps up to depth
+// requests in flight: a sender writes requests as long as fewer than depth
+// are unanswered, and a receiver times each answer from when its request
+// was written. Requests come from a file, used in turn, or are random
+// path queries between routers R0 .. R(routers - 1), as made by the
+// topology generator. Prints p50, p99 and p99.9 latency and queries per second.
+class LoadClient
+{
+    private String host = "127.0.0.1";
+    private int port = 4321;
+    private int connections = 4;
+    private int requests = 100000;
+    private int depth = 16;
+    private int routers = 1000;
+    private String file;
+    private long seed = 1;
+
+    /**
+     * Read key=value options: host, port, connections, requests (in all),
+     * depth, routers, file, seed.
+     */
+    public LoadClient( String[] options )
+    {
+        for( String option : options )
+        {
+            int eq = option.indexOf( '=' );
+            if( eq < 0 )
+                throw new IllegalArgumentException( "Expected key=value, not " + option );
+            String key = option.substring( 0, eq ), value = option.substring( eq + 1 );
+            switch( key )
+            {
+              case "host": host = value; break;
+              case "port": port = Integer.parseInt( value ); break;
+              case "connections": connections = Integer.parseInt( value ); break;
+              case "requests": requests = (int) Double.parseDouble( value ); break;
+              case "depth": depth = Math.max( 1, Integer.parseInt( value ) ); break;
+              case "routers": routers = Integer.parseInt( value ); break;
+              case "file": file = value; break;
+              case "seed": seed = Long.parseLong( value ); break;
+              default: throw new IllegalArgumentException( "Unknown client option " + key );
+            }
+        }
+    }
+
+    public void run( ) throws Exception
+    {
+        List<String> lines = new ArrayList<String>( );
+        if( file != null )
+            try( BufferedReader in = new BufferedReader( new FileReader( file ) ) )
+            {
+                String line;
+                while( ( line = in.readLine( ) ) != null )
+                    if( !line.isEmpty( ) && !line.startsWith( "quit" ) )
+                        lines.add( line );
+            }
+
+        int each = Math.max( 1, requests / connections );
+        ExecutorService pool = Executors.newFixedThreadPool( connections );
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>( );
+        long start = System.nanoTime( );
+        for( int c = 0; c < connections; c++ )
+        {
+            Random r = new Random( seed + c );
+            String[] mine = new String[ each ];
+            for( int i = 0; i < each; i++ )
+                mine[ i ] = lines.isEmpty( ) ? "path R" + r.nextInt( routers ) + " R" + r.nextInt( routers )
+                                             : lines.get( ( c * each + i ) % lines.size( ) );
+            results.add( pool.submit( ( ) -> connection( mine ) ) );
+        }
+        long[] latency = new long[ each * connections ];
+        int count = 0;
+        for( Future<long[]> f : results )
+        {
+            long[] some = f.get( );
+            System.arraycopy( some, 0, latency, count, some.length );
+            count += some.length;
+        }
+        double seconds = ( System.nanoTime( ) - start ) / 1e9;
+        pool.shutdown( );
+
+        Arrays.sort( latency );
+        System.out.printf( "%d requests on %d connections, depth %d: %.0f queries/s; latency p50 %.1f us, "
+                           + "p99 %.1f us, p99.9 %.1f us, max %.1f us%n", count, connections, depth, count / seconds,
+                           percentile( latency, 0.50 ), percentile( latency, 0.99 ),
+                           percentile( latency, 0.999 ), latency[ count - 1 ] / 1e3 );
+    }
+
+    private static double percentile( long[] sorted, double p )
+    {
+        return sorted[ Math.min( sorted.length - 1, (int) ( p * sorted.length ) ) ] / 1e3;
+    }
+
+    /**
+     * Send the requests over one connection; returns each one's latency in ns.
+     */
+    private long[] connection( String[] mine ) throws Exception
+    {
+        long[] latency = new long[ mine.length ];
+        AtomicLongArray sent = new AtomicLongArray( mine.length );
+        Semaphore window = new Semaphore( depth );
+        try( Socket s = new Socket( host, port ) )
+        {
+            s.setTcpNoDelay( true );
+            BufferedReader in = new BufferedReader( new InputStreamReader( s.getInputStream( ), StandardCharsets.UTF_8 ), 1 << 16 );
+            PrintStream out = new PrintStream( new BufferedOutputStream( s.getOutputStream( ), 1 << 16 ), false, "UTF-8" );
+            Thread sender = new Thread( ( ) -> {
+                try
+                {
+                    for( int i = 0; i < mine.length; i++ )
+                    {
+                        window.acquire( );
+                        sent.set( i, System.nanoTime( ) );
+                        out.print( mine[ i ] );
+                        out.print( '\n' );
+                        out.flush( );
+                    }
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread( ).interrupt( );
+                }
+            } );
+            sender.start( );
+            for( int i = 0; i < mine.length; i++ )
+            {
+                String line;
+                while( ( line = in.readLine( ) ) != null && !line.equals( "." ) )
+                    ;
+                if( line == null )
+                    throw new IOException( "Server closed the connection" );
+                latency[ i ] = System.nanoTime( ) - sent.get( i );
+                window.release( );
+            }
+            sender.join( );
+        }
+        return latency;
+    }
+}
+
+// Graph class: evaluate shortest paths of weighted graoh.
+//
+// CONSTRUCTION: with no parameters.
+//
+// ******************PUBLIC OPERATIONS**********************
+// void addUndirectedEdge( String v, String w, Double weight)
+//                              --> Add additional edge
+// void addEdge( String v, String w, Double weight )
+//                              --> Add additional edge, directed
+// void edgeUp(String v,String w) --> Mark created edge as 'Up'
+// void edgeDown(String v,String w) --> Mark created edge as 'Down'
+// void deleteEdge(String v,String w) --> Removes an edge from the starting node
+// void vertexUp(vertex v) --> Mark created vertex as 'Up'
+// void vertexDown(vertex v) --> Mark created vertex as 'Down'
+// void printPath( String w )   --> Print path after alg is run
+// void setHeapArity( int d )   --> Pick the SPF queue (PRIORITY_QUEUE or d-ary)
+// void setCacheCapacity( int n ) --> Keep up to n shortest path trees for reuse
+// void printCacheStats( )      --> Print tree cache hits and misses
+// void setIncremental( boolean on ) --> Repair cached trees on change, or recompute
+// void print()   --> Prints all nodes and their weighted edges 
+// void reachable() --> prints all nodes and their reachable descendants provided all are up
+// boolean canReach( String v, String w ) --> Whether w is reachable from v over up links
+// void setOutput( PrintStream out ) --> Print answers to out instead of the console
+// void setHierarchy( boolean on ) --> Answer path requests from a contraction hierarchy
+// boolean setFastReroute( boolean on ) --> Answer path requests over failures from backups until SPF runs (at most 5000 routers)
+// void setEcmp( boolean on ) --> Keep every shortest path in ospf's trees
+// void setIntegerMetrics( boolean on ) --> Costs in whole hundredths, ospf on a radix heap
+// void setOffHeap( boolean on ) --> Keep links in direct buffers, off the Java heap
+// void setDeltaStepping( int threads, double delta ) --> Run ospf by parallel delta-stepping
+// void setArea( String v, int area ) --> Put a router in an OSPF area; paths then follow areas
+// void setThrottle( SpfThrottle t ) --> Throttle SPF runs after changes, or not (null)
+// void await( long ms )       --> Move the throttle's request clock on
+// void printStats( )          --> Print topology, SPF work, cache and latency counters
+// void paths( String s, String d ) --> Every equal-cost path, and next hop sets
+// void route( String s, String d, int method ) --> Point-to-point path, and vertices settled
+// RoutingTable routingTable( int threads ) --> Next hop and cost for every router pair
+// Topology publishVersions( ) --> Start publishing immutable versions for concurrent readers
+// Topology current( )         --> Latest published version
+// void save( String file )    --> Write a binary snapshot, starting a new journal
+// void load( String file )    --> Replace the graph by a snapshot, then replay the journal
+// void ospf(String s) --> Open Shortest Path First protocol 
+
+public class Graph
+{
+    public static final int INFINITY = Integer.MAX_VALUE;
+    public static final int PRIORITY_QUEUE = 0;   // Heap arity for java.util.PriorityQueue
+    private SymbolTable symbols = new SymbolTable( );   // Vertex names and their ids
+    private LinkStore links = new LinkStore( );
+    private LinkStore inLinks = new LinkStore( ); // Same links, stored by head
+    private boolean offHeap;                      // Both stores keep their links off the heap
+    private long epoch;                           // Bumped by every topology or state change
+    private PathTree last;                        // Tree printed by printPath, null if none
+    private final PathTree toward = new PathTree( -1 );   // Search stopped at one destination
+    private boolean incremental = true;           // Repair cached trees on change
+    private int cacheCapacity = 16;
+    private long cacheHits;
+    private long cacheMisses;
+    private BitSet searched = new BitSet( );     // Starts path has run a stopped search from
+    private Map<Integer,PathTree> trees =         // Recently used trees, least recent first
+        new LinkedHashMap<Integer,PathTree>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Integer,PathTree> eldest )
+              { return size( ) > cacheCapacity; }
+        };
+    private int heapArity = 4;
+    private IndexedHeap heap = new IndexedHeap( heapArity );
+    private BitSet vertexDown = new BitSet( );   // Down vertices, by id
+    private int[] scratch = new int[ 0 ];
+    private Reachability reach;                  // Closure for reachEpoch
+    private long reachEpoch;
+    private PrintStream out = System.out;        // Where requests print their answers
+    private long generation;                     // Snapshot the graph was saved to or loaded from
+    private String snapshotFile;                 // Default file for save and load
+    private Journal journal;                     // Changes since that snapshot, if kept
+    private final AtomicReference<Topology> versions =  // Latest published version, once asked for
+        new AtomicReference<Topology>( );
+    private final PointToPoint pointToPoint = new PointToPoint( );
+    private int landmarkCount = 8;
+    private Landmarks landmarks;                 // For ALT; null until first needed
+    private boolean landmarksStale;              // Some distance may have shrunk since
+    private boolean useHierarchy;                // Answer path requests from hierarchy
+    private ContractionHierarchy hierarchy;      // Null until needed, or after a new link
+    private boolean hierarchyStale;              // Costs or up/down state changed since customizing
+    private boolean fastReroute;                 // Answer path requests from backups after failures
+    private final AtomicReference<FastReroute> backups =   // Latest backups worked out, or null
+        new AtomicReference<FastReroute>( );
+    private final AtomicBoolean backupsQueued = new AtomicBoolean( );
+    private ExecutorService rerouteWorker;       // Works out backups off the request thread
+    private volatile Topology repaired;          // Latest version made by a change other than a failure
+    private long reroutedPaths;
+    private long reroutesFailed;
+    private boolean ecmp;                        // Trees keep every shortest path
+    private SpfThrottle throttle;                // Null unless SPF runs are throttled
+    private boolean integerMetrics;              // Costs are whole metric units, and ospf uses a radix heap
+    private final SpfWorkspace workspace = new SpfWorkspace( );   // For ospf on integer metrics
+    private DeltaStepping deltaStepping;         // Runs ospf in parallel, unless null
+    private double delta;                        // Its bucket width, 0 for the mean link cost
+    private final long[] deltaCounts = new long[ 4 ];
+    private final Areas areas = new Areas( );    // Path requests follow OSPF areas once any are set
+    private volatile boolean livePaths;          // Some mode above needs path requests answered on the live graph
+    private static final int SETTLED = 0, RELAXED = 1, PUSHES = 2, DECREASES = 3, SKIPPED = 4,
+                             SPF_RUNS = 5, REPAIRS = 6;
+    private final AtomicLongArray work = new AtomicLongArray( 7 );      // SPF work, by the counts above
+    private final LatencyHistogram[] latency = new LatencyHistogram[ Command.count( ) ];   // By op
+    {
+        for( int op = 0; op < latency.length; op++ )
+            latency[ op ] = new LatencyHistogram( );
+    }
+    private static final int PATHS_LISTED = 16;  // Equal-cost paths printed in full
+
+    /**
+     * Add a new undirected edge to the graph.
+     */
+    public void addUndirectedEdge( String sourceName, String destName, double weightAmt )
+    {
+        int v = getVertex( sourceName );
+        int w = getVertex( destName );
+        setLink( v, w, weightAmt );
+        setLink( w, v, weightAmt );
+
+    }
+
+    /**
+     * Add a new directed edge to the graph.
+     * If the edge already exists, its weight is replaced.
+     * Either way the edge is up afterwards.
+     */
+    public void addEdge(String tailvertex, String headvertex,double transmit_time)
+    {
+        int v = getVertex( tailvertex );
+        int w = getVertex( headvertex );
+        setLink( v, w, transmit_time );
+    }
+
+    /**
+     * Add or reweigh link v -> w in both link stores.
+     */
+    private void setLink( int v, int w, double cost )
+    {
+        if( integerMetrics )
+            cost = LinkStore.rounded( cost );
+        int e = links.find( v, w );
+        double before = e < 0 ? INFINITY : usableCost( e );
+        links.add( v, w, cost );
+        inLinks.add( w, v, cost );
+        linkChanged( v, w, before, vertexDown.get( w ) ? INFINITY : cost );
+    }
+
+    /**
+     * Mark given edge as up. Does nothing if the edge does not exist.
+     */
+    public void edgeup(String tailvertex,String headvertex){
+        setEdgeDown(tailvertex, headvertex, false);
+    }
+
+    /**
+     * Mark given edge as down. Does nothing if the edge does not exist.
+     */
+    public void edgedown(String tailvertex,String headvertex){
+        setEdgeDown(tailvertex, headvertex, true);
+    }
+
+    private void setEdgeDown( String tailvertex, String headvertex, boolean down )
+    {
+        int v = symbols.find( tailvertex );
+        int w = symbols.find( headvertex );
+        if( v < 0 || w < 0 )
+            return;
+        int e = links.find( v, w );
+        if( e >= 0 && links.isDown( e ) != down )
+        {
+            double before = usableCost( e );
+            links.setDown( e, down );
+            inLinks.setDown( inLinks.find( w, v ), down );
+            linkChanged( v, w, before, usableCost( e ) );
+        }
+    }
+
+    /**
+     * Mark given vertex as up.
+     */
+    private void vertexup(int v){
+        if(vertexDown.get(v)){
+            vertexDown.clear(v);
+            vertexChanged(v, false);
+        }
+    }
+
+    /**
+     * Mark given vertex as down.
+     */
+    private void vertexdown(int v){
+        if(!vertexDown.get(v)){
+            vertexDown.set(v);
+            vertexChanged(v, true);
+        }
+    }
+
+    /**
+     * Mark the named vertex as up or down. Does nothing if it does not exist.
+     */
+    public void vertexup(String name){
+        int v = symbols.find( name );
+        if(v >= 0)
+            vertexup(v);
+    }
+
+    public void vertexdown(String name){
+        int v = symbols.find( name );
+        if(v >= 0)
+            vertexdown(v);
+    }
+
+    /**
+     * Delete edge entirely from current neighbors of starting point
+     */
+    public void deleteEdge(String tailvertex, String headvertex)
+    {
+        int v = getVertex( tailvertex );
+        int w = getVertex( headvertex );
+        int e = links.find( v, w );
+        if( e >= 0 )
+        {
+            double before = usableCost( e );
+            links.remove( v, w );
+            inLinks.remove( w, v );
+            linkChanged( v, w, before, INFINITY );
+        }
+    }
+
+    /**
+     * Cost of the link in slot e as seen by ospf: INFINITY if the link
+     * or its head is down.
+     */
+    private double usableCost( int e )
+    {
+        if( links.isDown( e ) || vertexDown.get( links.target( e ) ) )
+            return INFINITY;
+        return links.weight( e );
+    }
+
+    /**
+     * Fill an empty graph with the given vertices, whose ids are their
+     * indexes in names, and undirected edges, just as calling
+     * addUndirectedEdge for each edge in turn would.
+     */
+    void bulkLoad( String[] names, int[] from, int[] to, double[] cost, int edges )
+    {
+        SymbolTable table = new SymbolTable( );
+        for( String name : names )
+            table.add( name );
+        bulkLoad( table, from, to, cost, edges );
+    }
+
+    /**
+     * Fill an empty graph with the vertices of names, by their ids there,
+     * and undirected edges, as above.
+     */
+    void bulkLoad( SymbolTable names, int[] from, int[] to, double[] cost, int edges )
+    {
+        if( symbols.size( ) > 0 )
+            throw new IllegalStateException( "Bulk load needs an empty graph" );
+        symbols = names;
+        links = LinkStore.undirected( names.size( ), from, to, cost, edges );
+        if( integerMetrics )
+            links.roundWeights( );
+        inLinks = links.copy( );    // Every link has its twin, so in-rows match out-rows
+        links.setOffHeap( offHeap );
+        inLinks.setOffHeap( offHeap );
+        areas.reset( names.size( ) );
+        modesChanged( );
+        epoch++;
+        landmarks = null;
+        hierarchy = null;
+        if( versions.get( ) != null )
+            versions.set( wholeVersion( ) );
+        rerouteChanged( false );
+    }
+
+    /**
+     * Write the whole graph to a snapshot file (see Snapshot for the layout).
+     * The journal, if any, is emptied, as the snapshot now holds its changes.
+     */
+    public void save( String fileName ) throws IOException
+    {
+        int n = symbols.size( );
+        long next = Math.max( generation + 1, System.currentTimeMillis( ) );
+
+        try( DataOutputStream file = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName ), 1 << 16 ) ) )
+        {
+            file.writeInt( Snapshot.MAGIC );
+            file.writeInt( Snapshot.VERSION );
+            file.writeLong( next );
+            file.writeInt( n );
+            symbols.write( file );
+            Snapshot.pad( file );
+            long[] down = Arrays.copyOf( vertexDown.toLongArray( ), ( n + 63 ) / 64 );
+            for( long word : down )
+                file.writeLong( word );
+            links.write( file );
+            inLinks.write( file );
+        }
+        generation = next;
+        if( journal != null )
+            journal.reset( generation );
+    }
+
+    /**
+     * Replace the graph by the one in a snapshot file. The file is mapped
+     * and each section copied straight into place; nothing is parsed, and
+     * names are not interned again, as the lookup table is saved too.
+     */
+    public void load( String fileName ) throws IOException
+    {
+        try( RandomAccessFile file = new RandomAccessFile( fileName, "r" );
+             FileChannel channel = file.getChannel( ) )
+        {
+            if( channel.size( ) > Integer.MAX_VALUE )
+                throw new IOException( fileName + " is too large to be a snapshot" );
+            ByteBuffer in = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size( ) );
+            if( in.remaining( ) < 24 || in.getInt( ) != Snapshot.MAGIC )
+                throw new IOException( fileName + " is not a snapshot" );
+            int version = in.getInt( );
+            if( version != Snapshot.VERSION && version != 1 )
+                throw new IOException( fileName + " has unsupported snapshot version " + version );
+            long saved = in.getLong( );
+            int n = in.getInt( );
+            SymbolTable names = SymbolTable.read( in, n, version > 1 );
+            Snapshot.align( in );
+            long[] down = Snapshot.longs( in, ( n + 63 ) / 64 );
+            LinkStore outgoing = LinkStore.read( in, n, offHeap );
+            LinkStore incoming = LinkStore.read( in, n, offHeap );
+
+            symbols = names;
+            links = outgoing;
+            inLinks = incoming;
+            vertexDown = BitSet.valueOf( down );
+            generation = saved;
+            if( integerMetrics )
+            {
+                links.roundWeights( );
+                inLinks.roundWeights( );
+            }
+        }
+        catch( BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e )
+        {
+            throw new IOException( fileName + " is a truncated or damaged snapshot" );
+        }
+        trees.clear( );
+        searched.clear( );
+        last = null;
+        reach = null;
+        areas.reset( symbols.size( ) );
+        modesChanged( );
+        epoch++;
+        landmarks = null;
+        hierarchy = null;
+        if( versions.get( ) != null )
+            versions.set( wholeVersion( ) );
+        rerouteChanged( false );
+    }
+
+    /**
+     * From now on, publish an immutable version of the topology after every
+     * change, for queries on other threads; returns the current one. Only
+     * the one thread that changes the graph may call this.
+     */
+    public Topology publishVersions( )
+    {
+        if( versions.get( ) == null )
+            versions.set( wholeVersion( ) );
+        return versions.get( );
+    }
+
+    /**
+     * Latest published version, or null if versions are not published.
+     * Safe to call from any thread.
+     */
+    public Topology current( )
+    {
+        return versions.get( );
+    }
+
+    /**
+     * Publish the version following a change to vertex v's row.
+     */
+    private void republish( int v )
+    {
+        Topology t = versions.get( );
+        if( t != null )
+            versions.set( t.with( v, row( v ) ) );
+    }
+
+    private Topology wholeVersion( )
+    {
+        Topology t = versions.get( );
+        Topology.Row[] rows = new Topology.Row[ symbols.size( ) ];
+        for( int v = 0; v < rows.length; v++ )
+            rows[ v ] = row( v );
+        return Topology.of( t == null ? 1 : t.version + 1, rows, rows.length );
+    }
+
+    /**
+     * Copy of vertex v's state and out-links, for a published version.
+     */
+    private Topology.Row row( int v )
+    {
+        int degree = links.degree( v );
+        int[] target = new int[ degree ];
+        double[] weight = new double[ degree ];
+        byte[] flags = new byte[ degree ];
+        for( int i = 0, e = links.begin( v ); i < degree; i++, e++ )
+        {
+            target[ i ] = links.target( e );
+            weight[ i ] = links.weight( e );
+            flags[ i ] = links.isDown( e ) ? LinkStore.DOWN : 0;
+        }
+        return new Topology.Row( symbols.name( v ), vertexDown.get( v ), target, weight, flags );
+    }
+
+    /**
+     * Keep a journal of changes in the given file, replaying whatever it
+     * already holds for the current snapshot first. A journal left by some
+     * other snapshot is discarded.
+     */
+    public void openJournal( String fileName ) throws IOException
+    {
+        journal = new Journal( fileName );
+        replayJournal( );
+    }
+
+    private void replayJournal( ) throws IOException
+    {
+        Journal kept = journal;
+        List<Command> changes = kept.read( generation );
+        if( changes == null )
+        {
+            kept.reset( generation );
+            return;
+        }
+        journal = null;             // Replayed changes are in the journal already
+        try
+        {
+            for( Command c : changes )
+                execute( c );
+        }
+        finally
+        {
+            journal = kept;
+        }
+        kept.reopen( );
+    }
+
+    /**
+     * Note a change just made in the journal; always returns true.
+     */
+    private boolean logged( Command c )
+    {
+        if( journal != null )
+        {
+            try
+              { journal.append( c ); }
+            catch( IOException e )
+            {
+                System.err.println( e + ", no longer journaling changes" );
+                journal = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Print the shortest path from startName to destName found by a
+     * PointToPoint method, which stops once destName is settled, then how
+     * many vertices the search settled.
+     * @throws NoSuchElementException if either vertex does not exist.
+     */
+    public void route( String startName, String destName, int method )
+    {
+        int v = symbols.find( startName );
+        int w = symbols.find( destName );
+        if( v < 0 || w < 0 )
+            throw new NoSuchElementException( "Vertex not found" );
+        if( vertexDown.get( v ) )
+            out.println( "Starting location is down" );
+        int n = symbols.size( );
+        Landmarks marks = method == PointToPoint.ALT && !vertexDown.get( v ) ? landmarks( ) : null;
+        double d = pointToPoint.search( links, inLinks, vertexDown, n, v, w, method, marks );
+        if( d == INFINITY )
+            out.println( destName + " is unreachable" );
+        else
+        {
+            StringBuilder line = new StringBuilder( );
+            for( int hop : pointToPoint.path( ) )
+                line.append( symbols.name( hop ) ).append( ' ' );
+            double rounded = shown( d );
+            out.println( line.append( rounded ) );
+        }
+        out.println( "Settled " + pointToPoint.settled( ) + " of " + n + " vertices by "
+                     + PointToPoint.METHODS[ method ] );
+    }
+
+    /**
+     * Print every shortest path from startName to destName, up to
+     * PATHS_LISTED of them, then the equal-cost next hops toward destName of
+     * each router on them. All come from one SPF run: ospf's own if its
+     * trees keep every path (see setEcmp), or else one run for this request.
+     * @throws NoSuchElementException if either vertex does not exist.
+     */
+    public void paths( String startName, String destName )
+    {
+        int v = symbols.find( startName );
+        int w = symbols.find( destName );
+        if( v < 0 || w < 0 )
+            throw new NoSuchElementException( "Vertex not found" );
+        if( vertexDown.get( v ) )
+        {
+            out.println( "Starting location is down" );
+            out.println( destName + " is unreachable" );
+            return;
+        }
+        PathTree t;
+        if( ecmp )
+            t = tree( v );
+        else
+        {
+            t = new PathTree( v );
+            t.dag = new PathDag( );
+            spf( t );
+        }
+        if( t.dist[ w ] == INFINITY )
+        {
+            out.println( destName + " is unreachable" );
+            return;
+        }
+
+        // Routers on some shortest path to w, found back from it, in order of distance
+        PathDag dag = t.dag;
+        int[] index = new int[ symbols.size( ) ];
+        Arrays.fill( index, -1 );
+        List<Integer> on = new ArrayList<Integer>( );
+        on.add( w );
+        index[ w ] = 0;
+        for( int i = 0; i < on.size( ); i++ )
+            for( int k = dag.first[ on.get( i ) ]; k >= 0; k = dag.next[ k ] )
+                if( index[ dag.pred[ k ] ] < 0 )
+                {
+                    index[ dag.pred[ k ] ] = 0;
+                    on.add( dag.pred[ k ] );
+                }
+        double[] dist = t.dist;
+        on.sort( ( a, b ) -> dist[ a ] != dist[ b ] ? Double.compare( dist[ a ], dist[ b ] )
+                                                    : symbols.name( a ).compareTo( symbols.name( b ) ) );
+        for( int i = 0; i < on.size( ); i++ )
+            index[ on.get( i ) ] = i;
+
+        // Next hops of each, in name order, and how many predecessors each has
+        List<List<Integer>> next = new ArrayList<List<Integer>>( );
+        int[] waiting = new int[ on.size( ) ];
+        for( int i = 0; i < on.size( ); i++ )
+            next.add( new ArrayList<Integer>( ) );
+        for( int i = 0; i < on.size( ); i++ )
+            for( int k = dag.first[ on.get( i ) ]; k >= 0; k = dag.next[ k ] )
+            {
+                next.get( index[ dag.pred[ k ] ] ).add( on.get( i ) );
+                waiting[ i ]++;
+            }
+        for( List<Integer> hops : next )
+            hops.sort( ( a, b ) -> symbols.name( a ).compareTo( symbols.name( b ) ) );
+
+        // Number of paths to each, passed on in topological order (Kahn's
+        // algorithm), as zero cost links can tie routers at one distance
+        long[] count = new long[ on.size( ) ];
+        int[] ready = new int[ on.size( ) ];
+        int head = 0, tail = 0;
+        count[ index[ v ] ] = 1;
+        ready[ tail++ ] = index[ v ];
+        while( head < tail )
+        {
+            int p = ready[ head++ ];
+            for( int hop : next.get( p ) )
+            {
+                int i = index[ hop ];
+                count[ i ] = count[ i ] + count[ p ] < 0 ? Long.MAX_VALUE : count[ i ] + count[ p ];
+                if( --waiting[ i ] == 0 )
+                    ready[ tail++ ] = i;
+            }
+        }
+
+        long total = count[ index[ w ] ];
+        out.println( ( total == Long.MAX_VALUE ? "At least " : "" ) + total + " equal-cost path"
+                     + ( total == 1 ? "" : "s" ) + " from " + startName + " to " + destName );
+        List<Integer> path = new ArrayList<Integer>( );
+        path.add( v );
+        listPaths( path, w, next, index, new int[ ] { PATHS_LISTED } );
+        if( total > PATHS_LISTED )
+            out.println( "... and " + ( total - PATHS_LISTED ) + " more" );
+        out.println( "Next hops toward " + destName + ":" );
+        for( int i = 0; i < on.size( ); i++ )
+        {
+            if( on.get( i ) == w )
+                continue;
+            StringBuilder line = new StringBuilder( "\t" ).append( symbols.name( on.get( i ) ) );
+            for( int hop : next.get( i ) )
+                line.append( ' ' ).append( symbols.name( hop ) );
+            out.println( line );
+        }
+    }
+
+    /**
+     * Print the paths to dest that go on from path along next, in name
+     * order, while left[ 0 ] allows more. Each cost is summed along its path
+     * from the start, as ospf adds it up.
+     */
+    private void listPaths( List<Integer> path, int dest, List<List<Integer>> next, int[] index, int[] left )
+    {
+        int at = path.get( path.size( ) - 1 );
+        if( at == dest )
+        {
+            StringBuilder line = new StringBuilder( );
+            double cost = 0;
+            for( int i = 0; i < path.size( ); i++ )
+            {
+                if( i > 0 )
+                    cost += links.weight( links.find( path.get( i - 1 ), path.get( i ) ) );
+                line.append( symbols.name( path.get( i ) ) ).append( ' ' );
+            }
+            double rounded = shown( cost );
+            out.println( line.append( rounded ) );
+            left[ 0 ]--;
+            return;
+        }
+        for( int hop : next.get( index[ at ] ) )
+        {
+            if( left[ 0 ] == 0 )
+                return;
+            path.add( hop );
+            listPaths( path, dest, next, index, left );
+            path.remove( path.size( ) - 1 );
+        }
+    }
+
+    /**
+     * Have ospf run delta-stepping on threads threads, with buckets delta
+     * wide (0 for the mean link cost), or Dijkstra's algorithm if threads
+     * is 0. Distances come out the same either way; among equal-cost
+     * paths, delta-stepping keeps the one through the predecessor nearest
+     * the source. Trees that keep every path still use Dijkstra's.
+     */
+    public void setDeltaStepping( int threads, double delta )
+    {
+        if( deltaStepping != null && ( threads < 1 || threads != deltaStepping.threads ) )
+        {
+            deltaStepping.shutdown( );
+            deltaStepping = null;
+        }
+        if( threads >= 1 && deltaStepping == null )
+            deltaStepping = new DeltaStepping( threads );
+        this.delta = Math.max( 0, delta );
+    }
+
+    /**
+     * Print which algorithm ospf runs, and for delta-stepping how the last
+     * run went.
+     */
+    public void printSpf( )
+    {
+        DeltaStepping d = deltaStepping;
+        if( d == null )
+        {
+            out.println( "SPF by Dijkstra's algorithm" + ( integerMetrics ? " on a radix heap" : "" ) );
+            return;
+        }
+        out.println( "SPF by delta-stepping on " + d.threads + " threads, delta "
+                     + ( delta > 0 ? String.valueOf( delta ) : "the mean link cost" ) );
+        if( d.buckets > 0 )
+            out.printf( "Last run: delta %.3f, %d buckets, %d light phases%n", d.delta, d.buckets, d.phases );
+    }
+
+    /**
+     * Measure costs in whole metric units (hundredths), as OSPF's integer
+     * link costs, or not. Once on, every cost is rounded to the nearest
+     * unit as it comes in, those already in the graph included, and ospf
+     * runs Dijkstra's algorithm on integer distances with a radix heap,
+     * so equal-cost paths tie exactly. Trees are then recomputed after a
+     * change rather than repaired in place, and costs print rounded to
+     * the unit instead of truncated.
+     */
+    public void setIntegerMetrics( boolean on )
+    {
+        if( on && !integerMetrics )
+        {
+            links.roundWeights( );
+            inLinks.roundWeights( );
+            last = null;
+            epoch++;
+            landmarks = null;
+            hierarchyStale = true;
+            if( versions.get( ) != null )
+                versions.set( wholeVersion( ) );
+            rerouteChanged( false );
+        }
+        if( on != integerMetrics )
+            trees.clear( );
+        integerMetrics = on;
+    }
+
+    /**
+     * Keep the links of both stores off the heap, in direct buffers, or
+     * move them back onto it. Answers are the same either way.
+     */
+    public void setOffHeap( boolean on )
+    {
+        offHeap = on;
+        links.setOffHeap( on );
+        inLinks.setOffHeap( on );
+    }
+
+    /**
+     * Bytes held per vertex for its name and rows, and per link for its
+     * slots in both stores.
+     */
+    double[] footprint( )
+    {
+        return new double[ ] {
+            ( symbols.bytes( ) + links.rowBytes( ) + inLinks.rowBytes( ) ) / (double) Math.max( 1, symbols.size( ) ),
+            ( links.slotBytes( ) + inLinks.slotBytes( ) ) / (double) Math.max( 1, links.links( ) ) };
+    }
+
+    /**
+     * Cost as printed: to two decimals, truncated, or rounded to the unit
+     * with integer metrics, where costs are exact hundredths.
+     */
+    private double shown( double cost )
+    {
+        return integerMetrics ? LinkStore.rounded( cost ) : (double)((int)(cost * 100))/100.0;
+    }
+
+    /**
+     * Have ospf keep every shortest path in its trees, for paths requests,
+     * or just one. Trees that keep every path are recomputed after a change
+     * rather than repaired in place.
+     */
+    public void setEcmp( boolean on )
+    {
+        if( on != ecmp )
+            trees.clear( );
+        ecmp = on;
+    }
+
+    /**
+     * Answer path requests from a contraction hierarchy, or by ospf.
+     */
+    public void setHierarchy( boolean on )
+    {
+        useHierarchy = on;
+        modesChanged( );
+    }
+
+    /**
+     * The contraction hierarchy, ordered again if a link was added between
+     * routers it has no arc for, and customized again if costs or up/down
+     * state changed.
+     */
+    ContractionHierarchy hierarchy( )
+    {
+        if( hierarchy == null )
+        {
+            hierarchy = new ContractionHierarchy( links, symbols.size( ) );
+            hierarchyStale = true;
+        }
+        if( hierarchyStale )
+        {
+            hierarchy.customize( links, vertexDown );
+            hierarchyStale = false;
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Answer a path request from the contraction hierarchy, printing just
+     * what ospf and printPath would. The cost is summed along the path from
+     * the start, as ospf adds it up.
+     */
+    private void hierarchyPath( String startName, String destName )
+    {
+        last = null;
+        int v = symbols.find( startName );
+        if( v < 0 )
+            throw new NoSuchElementException( "Start vertex not found" );
+        if( vertexDown.get( v ) )
+            out.println( "Starting location is down" );
+        int w = symbols.find( destName );
+        if( w < 0 )
+            throw new NoSuchElementException( "Destination vertex not found" );
+        int[] path = vertexDown.get( v ) ? null : hierarchy( ).path( v, w );
+        if( path == null )
+            out.println( destName + " is unreachable" );
+        else
+            printRoute( path );
+    }
+
+    /**
+     * Print a path's routers and its cost, summed from the start.
+     */
+    private void printRoute( int[] path )
+    {
+        StringBuilder line = new StringBuilder( );
+        double cost = 0;
+        for( int i = 0; i < path.length; i++ )
+        {
+            if( i > 0 )
+                cost += links.weight( links.find( path[ i - 1 ], path[ i ] ) );
+            line.append( symbols.name( path[ i ] ) ).append( ' ' );
+        }
+        double rounded = shown( cost );
+        out.println( line.append( rounded ) );
+    }
+
+    /**
+     * Put a router in an OSPF area; 0 is the backbone, where every router
+     * starts. Once any router is outside the backbone, path requests follow
+     * OSPF's area rules (see Areas) instead of running ospf over the whole
+     * graph.
+     * @throws NoSuchElementException if the router does not exist.
+     */
+    public void setArea( String name, int area )
+    {
+        int v = symbols.find( name );
+        if( v < 0 )
+            throw new NoSuchElementException( "Vertex not found" );
+        areas.setArea( v, area );
+        modesChanged( );
+    }
+
+    /**
+     * Print each area's routers, ABRs and SPF runs.
+     */
+    public void printAreas( )
+    {
+        areas.print( out, links, inLinks );
+    }
+
+    /**
+     * Answer a path request by OSPF's area rules: within the start's area
+     * when the destination is in it, else through ABRs and the backbone.
+     */
+    private void areaPath( String startName, String destName )
+    {
+        last = null;
+        int v = symbols.find( startName );
+        if( v < 0 )
+            throw new NoSuchElementException( "Start vertex not found" );
+        if( vertexDown.get( v ) )
+            out.println( "Starting location is down" );
+        int w = symbols.find( destName );
+        if( w < 0 )
+            throw new NoSuchElementException( "Destination vertex not found" );
+        int[] path = vertexDown.get( v ) ? null : areas.route( links, inLinks, vertexDown, v, w );
+        if( path == null )
+            out.println( destName + " is unreachable" );
+        else
+            printRoute( path );
+    }
+
+    /**
+     * Print the size of the contraction hierarchy and how long it took,
+     * building it if need be.
+     */
+    public void printHierarchy( )
+    {
+        ContractionHierarchy h = hierarchy( );
+        int n = symbols.size( );
+        out.printf( "Contraction hierarchy: %d vertices, %d arcs (%.1f per vertex), %d bytes; "
+                    + "ordered in %.1f ms, customized in %.1f ms%n", n, h.arcs( ),
+                    h.arcs( ) / (double) Math.max( 1, n ), h.bytes( ), h.buildMillis, h.customizeMillis );
+    }
+
+    /**
+     * Landmarks for ALT, recomputed if some distance may have shrunk or
+     * vertices were added since they were made.
+     */
+    private Landmarks landmarks( )
+    {
+        int n = symbols.size( );
+        if( landmarks == null || landmarksStale || landmarks.routers != n )
+        {
+            landmarks = pointToPoint.landmarks( links, inLinks, vertexDown, n, landmarkCount );
+            landmarksStale = false;
+        }
+        return landmarks;
+    }
+
+    /**
+     * Use k landmarks for ALT route requests.
+     */
+    public void setLandmarks( int k )
+    {
+        landmarkCount = Math.max( 1, k );
+        landmarks = null;
+    }
+
+    /**
+     * Answer path requests over a failure that a throttled SPF run has not
+     * taken in yet from precomputed backups (see FastReroute), or always
+     * by ospf. Turning it on publishes
+     * versions and works out backups for the current one before returning;
+     * after every change, new backups are worked out on a worker thread.
+     * Returns false, leaving it off, on graphs of more than
+     * FastReroute.LIMIT routers.
+     */
+    public boolean setFastReroute( boolean on )
+    {
+        if( on && symbols.size( ) > FastReroute.LIMIT )
+        {
+            fastReroute = false;
+            modesChanged( );
+            return false;
+        }
+        if( on && rerouteWorker == null )
+            rerouteWorker = Executors.newSingleThreadExecutor( r -> {
+                Thread t = new Thread( r, "fast-reroute" );
+                t.setDaemon( true );
+                return t;
+            } );
+        if( on && !fastReroute )
+        {
+            Topology t = publishVersions( );
+            FastReroute f = backups.get( );
+            if( f == null || f.version != t.version )
+                install( new FastReroute( t, Runtime.getRuntime( ).availableProcessors( ) ) );
+            repaired = t;
+        }
+        fastReroute = on;
+        modesChanged( );
+        return true;
+    }
+
+    /**
+     * Queue new backups after a change. A failure while SPF runs are
+     * throttled leaves them as they are: routing around it is what the
+     * backups are for, until the SPF run takes it in or some other change
+     * makes them out of date. Without the throttle, ospf takes every
+     * failure in at once, so there is nothing to route around.
+     */
+    private void rerouteChanged( boolean failure )
+    {
+        if( fastReroute && symbols.size( ) > FastReroute.LIMIT )
+        {
+            fastReroute = false;
+            modesChanged( );
+            System.err.println( "Fast reroute turned off: over " + FastReroute.LIMIT + " routers" );
+        }
+        else if( fastReroute && ( !failure || throttle == null ) )
+            converged( versions.get( ) );
+    }
+
+    /**
+     * Make t the version backups are worked out for, and queue the work.
+     */
+    private void converged( Topology t )
+    {
+        repaired = t;
+        if( backupsQueued.compareAndSet( false, true ) )
+            rerouteWorker.execute( this::recomputeBackups );
+    }
+
+    /**
+     * Work out backups for the latest version made by a change other than
+     * a failure, on the worker thread. Changes made meanwhile queue one
+     * more run.
+     */
+    private void recomputeBackups( )
+    {
+        backupsQueued.set( false );
+        Topology t = repaired;
+        FastReroute f = backups.get( );
+        if( f == null || f.version != t.version )
+            install( new FastReroute( t, Runtime.getRuntime( ).availableProcessors( ) ) );
+    }
+
+    private void install( FastReroute f )
+    {
+        backups.accumulateAndGet( f, ( old, now ) -> old == null || old.version < now.version ? now : old );
+    }
+
+    /**
+     * Backups as last worked out, waiting for any still being worked out.
+     */
+    FastReroute awaitBackups( ) throws InterruptedException, ExecutionException
+    {
+        if( rerouteWorker != null )
+            rerouteWorker.submit( ( ) -> { } ).get( );
+        return backups.get( );
+    }
+
+    /**
+     * Answer a path request while failures wait for a throttled SPF run.
+     * The routers still forward on the tree of the last run, so while
+     * every hop of its path is usable that path is the answer. If one has
+     * failed, the answer comes from the backups instead, marked, as it
+     * need not be a shortest path; they are waited for if still being
+     * worked out, so the answer does not hang on timing. Returns false if
+     * ospf has to answer it as usual.
+     */
+    private boolean reroutePath( Command c )
+    {
+        Topology now = versions.get( ), base = repaired;
+        if( now.version == base.version || throttle == null )
+            return false;       // No failure since; ospf's paths are the ones in use
+        throttle.query( epoch );
+        if( throttle.pending( ) == 0 )
+        {
+            converged( now );   // The failures are in the SPF run now
+            return false;
+        }
+        ospf( c.first );
+        if( last == null || !broken( last, symbols.find( c.second ) ) )
+        {
+            printPath( c.second );
+            return true;
+        }
+        FastReroute f = backups.get( );
+        if( f == null || f.version != base.version )
+        {
+            try
+              { f = awaitBackups( ); }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                return false;
+            }
+            catch( ExecutionException e )
+              { return false; }
+            if( f == null || f.version != base.version )
+                return false;
+        }
+        int v = now.id( c.first ), w = now.id( c.second );
+        if( v < 0 || w < 0 || now.isDown( v ) )
+            return false;
+        Topology.Route route = f.route( now, v, w );
+        if( route == null )
+        {
+            reroutesFailed++;
+            return false;
+        }
+        reroutedPaths++;
+        last = null;
+        if( route.hops == null )
+        {
+            out.println( c.second + " is unreachable (fast reroute)" );
+            return true;
+        }
+        StringBuilder line = new StringBuilder( );
+        for( int hop : route.hops )
+            line.append( now.name( hop ) ).append( ' ' );
+        double rounded = shown( route.cost );
+        out.println( line.append( rounded ).append( " (fast reroute)" ) );
+        return true;
+    }
+
+    /**
+     * Whether a link or router on t's path to w, if it has one, is down.
+     */
+    private boolean broken( PathTree t, int w )
+    {
+        if( w < 0 || w >= t.dist.length || t.dist[ w ] == INFINITY )
+            return false;
+        for( int x = w; t.prev[ x ] >= 0; x = t.prev[ x ] )
+        {
+            int e = links.find( t.prev[ x ], x );
+            if( e < 0 || usableCost( e ) == INFINITY )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Print how far the backups cover the routers and how many path
+     * requests they answered.
+     */
+    public void printFastReroute( )
+    {
+        FastReroute f = backups.get( );
+        if( !fastReroute || f == null )
+        {
+            out.println( "Fast reroute is off" );
+            return;
+        }
+        long pairs = 0;
+        for( long k : f.protectedBy )
+            pairs += k;
+        out.printf( "Fast reroute on: backups from version %d (now %d), %d routers, worked out in %.1f ms with %d extra SPF runs%n",
+                    f.version, versions.get( ).version, f.routers, f.buildMillis, f.extraSpfs );
+        StringBuilder kinds = new StringBuilder( );
+        for( int k = FastReroute.LFA; k < FastReroute.KINDS.length; k++ )
+            kinds.append( String.format( "%.1f%% %s, ", 100.0 * f.protectedBy[ k ] / Math.max( 1, pairs ), FastReroute.KINDS[ k ] ) );
+        out.printf( "%s%.1f%% unprotected of %d destinations%n", kinds,
+                    100.0 * f.protectedBy[ FastReroute.NONE ] / Math.max( 1, pairs ), pairs );
+        out.println( reroutedPaths + " path requests answered without ospf, " + reroutesFailed + " left to ospf" );
+    }
+
+    /**
+     * Driver routine to print total distance.
+     * It calls recursive routine to print shortest path to
+     * destNode after a shortest path algorithm has run.
+     */
+    public void printPath( String destName )
+    {
+        int w = symbols.find( destName );
+        if( w < 0 )
+            throw new NoSuchElementException( "Destination vertex not found" );
+        else if( last == null || w >= last.dist.length || last.dist[ w ] == INFINITY )
+            out.println( destName + " is unreachable" );
+        else
+        {
+            printPath( w );
+            double rounded = shown( last.dist[ w ] );
+            out.print( " " + rounded);
+            out.println( );
+        }
+    }
+
+    /**
+     * Print all Nodes and their Edges in alphabetical order, with weights of each
+     */
+    public void print(){
+        int[] ordered = alphabetical();
+        int[] rank = new int[ordered.length];
+        for(int i = 0; i < ordered.length; i++)
+            rank[ordered[i]] = i;
+
+        for(int id : ordered) {
+            out.print(symbols.name(id));
+
+            if(vertexDown.get(id))
+                out.println(" -- Down");
+            else
+                out.println("");
+
+            // Sort the row by the rank of each head, keeping the slot alongside
+            long[] orderedInternal = new long[links.degree(id)];
+            for(int e = links.begin(id), i = 0; e < links.end(id); e++, i++){
+                orderedInternal[i] = (long) rank[links.target(e)] << 32 | e;
+            }
+            Arrays.sort(orderedInternal);
+            for(long key : orderedInternal){
+                int e = (int) key;
+                out.print("\t" + symbols.name(links.target(e)) + " " + links.weight(e));
+                if(links.isDown(e)){
+                    out.println(" -- Down");
+
+                }else{
+                    out.println("");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the ids of all vertices, ordered by name.
+     */
+    private int[] alphabetical( )
+    {
+        int n = symbols.size( );
+        String[] name = new String[ n ];
+        Integer[] ordered = new Integer[ n ];
+        for( int id = 0; id < n; id++ )
+        {
+            name[ id ] = symbols.name( id );
+            ordered[ id ] = id;
+        }
+        Arrays.sort( ordered, ( a, b ) -> name[ a ].compareTo( name[ b ] ) );
+        int[] ids = new int[ n ];
+        for( int i = 0; i < n; i++ )
+            ids[ i ] = ordered[ i ];
+        return ids;
+    }
+
+    /**
+     * If vertexName is not present, add it to the symbol table; new vertices
+     * start up. In either case, return its id.
+     */
+    private int getVertex( String vertexName )
+    {
+        int v = symbols.find( vertexName );
+        if( v < 0 ){
+            v = symbols.add( vertexName );
+            links.addRow( );
+            inLinks.addRow( );
+
+            // A new vertex has no links yet, so current trees only need room for it
+            republish( v );
+            areas.grow( symbols.size( ) );
+            hierarchy = null;
+            rerouteChanged( false );
+            long previous = epoch++;
+            for( PathTree t : trees.values( ) )
+                if( t.epoch == previous )
+                {
+                    t.extend( symbols.size( ) );
+                    t.epoch = epoch;
+                }
+        }
+        return (v);
+    }
+
+    /**
+     * Routine to print shortest path to dest after running
+     * shortest path algorithm. The path is known to exist.
+     * Walks the prev links back to the start, then prints forwards.
+     */
+    private void printPath( int dest )
+    {
+        int[] prev = last.prev;
+        int hops = 0;
+        for( int v = dest; v >= 0; v = prev[ v ] )
+            hops++;
+        int[] path = new int[ hops ];
+        for( int v = dest; v >= 0; v = prev[ v ] )
+            path[ --hops ] = v;
+        for( int i = 0; i < path.length; i++ )
+        {
+            if( i > 0 )
+                out.print( " " );
+            out.print( symbols.name( path[ i ] ) );
+        }
+    }
+    
+    /**
+     * Compiles a list of all reachable destination Nodes from a list of starting Nodes, displayed alphabetically
+     */
+    /*
+     * Reachability comes from the component closure, built in O(V+E) plus
+     * O(C^2/64) words for C components, and then answered per pair with a
+     * bit test. Printing is O(V^2) bit tests, which the output can be anyway.
+     * Past Reachability.LIMIT components each start is searched from once
+     * instead, in O(V+E), as the pairs are asked for by start.
+     */
+    public void reachable(){
+        Reachability r = reachability();
+        int[] ordered = alphabetical();
+
+        for(int v : ordered) {
+            if(vertexDown.get(v))
+                continue;
+            out.println(symbols.name( v ));
+
+            for(int w : ordered) {
+                if(w != v && r.canReach(v, w))
+                    out.println("\t" + symbols.name( w ));
+            }
+        }
+    }
+
+    /**
+     * Answer whether routing can get from one vertex to another over up
+     * links and vertices.
+     */
+    public boolean canReach( String sourceName, String destName )
+    {
+        int v = symbols.find( sourceName );
+        int w = symbols.find( destName );
+        if( v < 0 || w < 0 )
+            throw new NoSuchElementException( "Vertex not found" );
+        return reachability( ).canReach( v, w );
+    }
+
+    /**
+     * Return the reachability closure of the current topology,
+     * rebuilding it if the topology has changed since.
+     */
+    private Reachability reachability( )
+    {
+        if( reach == null || reachEpoch != epoch )
+        {
+            reach = new Reachability( links, vertexDown, symbols.size( ) );
+            reachEpoch = epoch;
+        }
+        return reach;
+    }
+    
+
+    /**
+     * Simulated OSPF (Open Shortest Path First) protocol that checks for downed edges and vertices
+     */
+
+    public void ospf( String startName )
+    {
+
+        last = null;
+
+        int start = symbols.find( startName );
+        if (start < 0) {
+            throw new NoSuchElementException("Start vertex not found");
+        }
+
+        if(vertexDown.get(start)){
+            out.println("Starting location is down");
+            return;
+        }
+
+        last = tree(start);
+    }
+
+    /**
+     * Leave the path from startName to destName for printPath, as
+     * ospf( startName ) would. The first time a start misses the tree
+     * cache, this runs Dijkstra's algorithm only until destName is settled.
+     * The stopped search polls and relaxes in the same order as a full one,
+     * so it gives the same path and cost, but its tree is good for destName
+     * only and is not cached. The start is remembered instead, outside the
+     * cache, and when it is asked for again ospf runs in full and its tree
+     * is kept. Each search counts as one cache miss. Other queues, and the
+     * throttle, always run ospf.
+     */
+    private void ospf( String startName, String destName )
+    {
+        int start = symbols.find( startName );
+        int dest = symbols.find( destName );
+        if( start < 0 || dest < 0 || vertexDown.get( start ) || throttle != null || ecmp
+                || deltaStepping != null || integerMetrics || heapArity == PRIORITY_QUEUE
+                || cacheCapacity > 0 && ( trees.containsKey( start ) || searched.get( start ) ) )
+        {
+            ospf( startName );
+            return;
+        }
+        cacheMisses++;
+        if( cacheCapacity > 0 )
+            searched.set( start );
+        work.incrementAndGet(SPF_RUNS);
+        toward.source = start;
+        toward.clear(symbols.size( ));
+        heap.reset(toward.dist, toward.dist.length);
+        toward.dist[start] = 0;
+        heap.update(start);
+        settle(heap, toward.dist, toward.prev, dest);
+        toward.epoch = epoch;
+        last = toward;
+    }
+
+    /**
+     * Return the shortest path tree from source for the current topology,
+     * from the cache if it was built in this epoch, otherwise by running SPF.
+     * While SPF runs are throttled, a tree built since the last run will do.
+     */
+    private PathTree tree( int source )
+    {
+        PathTree t = trees.get(source);
+        long since = epoch;
+        if (throttle != null) {
+            throttle.query(epoch);
+            since = throttle.runEpoch;
+        }
+        if (t != null && t.epoch >= since) {
+            cacheHits++;
+            if (t.epoch != epoch)
+                throttle.staleAnswers++;
+            return t;
+        }
+        cacheMisses++;
+        if (t == null) {
+            t = new PathTree(source);
+            if (ecmp)
+                t.dag = new PathDag();
+            trees.put(source, t);
+        }
+        spf(t);
+        return t;
+    }
+
+    /**
+     * Recompute t from scratch for the current topology.
+     */
+    private void spf( PathTree t )
+    {
+        work.incrementAndGet(SPF_RUNS);
+        t.clear(symbols.size( ));
+        if (t.dag != null) {
+            heap.reset(t.dist, t.dist.length);
+            t.dist[t.source] = 0;
+            heap.update(t.source);
+            settleAll(heap, t);
+        }
+        else if (deltaStepping != null) {
+            deltaStepping.run(links, inLinks, vertexDown, t.dist.length, t.source, delta, t.dist, t.prev, deltaCounts);
+            countWork(deltaCounts[0], deltaCounts[1], deltaCounts[2], 0, deltaCounts[3]);
+        }
+        else if (integerMetrics)
+            settleMetrics(workspace, t.source, t.dist, t.prev);
+        else if (heapArity == PRIORITY_QUEUE)
+            priorityQueueSpf(t.source, t.dist, t.prev);
+        else {
+            heap.reset(t.dist, t.dist.length);
+            t.dist[t.source] = 0;
+            heap.update(t.source);
+            settle(heap, t.dist, t.prev);
+        }
+        t.epoch = epoch;
+    }
+
+    /**
+     * Dijkstra's algorithm on the indexed d-ary heap: settle every vertex
+     * already queued in heap, and everything they improve. Only reads the
+     * topology, so threads with their own heap and arrays may run it at once.
+     */
+    private void settle( IndexedHeap heap, double[] dist, int[] prev )
+    {
+        settle(heap, dist, prev, -1);
+    }
+
+    /**
+     * As settle( heap, dist, prev ), but stop once stop is settled, leaving
+     * the rest queued; only the vertices settled by then are final.
+     */
+    private void settle( IndexedHeap heap, double[] dist, int[] prev, int stop )
+    {
+        long settled = 0, relaxed = 0, pushes = 0, decreases = 0, skipped = 0;
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            settled++;
+            if (v == stop)
+                break;
+
+            // Visit all neighbors of the current vertex
+            for (int e = links.begin(v), end = links.end(v); e < end; e++) {
+                int w = links.target(e);
+                if(vertexDown.get(w) || links.isDown(e)) {
+                    skipped++;
+                    continue;
+                }
+                relaxed++;
+
+                // If we found a shorter path to the neighbor, decrease its key
+                double d = dist[v] + links.weight(e);
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    prev[w] = v;
+                    if (heap.contains(w))
+                        decreases++;
+                    else
+                        pushes++;
+                    heap.update(w);
+                }
+                else if (d == dist[w] && nearer(dist, d, v, prev[w]))
+                    prev[w] = v;
+            }
+        }
+        countWork(settled, relaxed, pushes, decreases, skipped);
+    }
+
+    /**
+     * The tie rule of every SPF: whether v, reaching a vertex at cost d as
+     * its predecessor p does, should take p's place; dist holds both. The one nearer the
+     * source wins, then the lower id, so which of several equal-cost paths
+     * a tree holds does not depend on the order the search settled
+     * vertices in, the queue it ran on, or whether the tree was repaired.
+     * Over a zero-cost link (v as far as the vertex) p stays, as v may lie
+     * below the vertex in the tree.
+     */
+    static boolean nearer( double[] dist, double d, int v, int p )
+    {
+        return dist[ v ] < d && ( dist[ v ] < dist[ p ] || dist[ v ] == dist[ p ] && v < p );
+    }
+
+    /**
+     * nearer( ) on integer distances.
+     */
+    static boolean nearer( long[] dist, long d, int v, int p )
+    {
+        return dist[ v ] < d && ( dist[ v ] < dist[ p ] || dist[ v ] == dist[ p ] && v < p );
+    }
+
+    /**
+     * Dijkstra's algorithm on integer metrics from source, with ws's radix
+     * heap and distances, writing each distance to dist as a cost when its
+     * vertex is settled. dist and prev must start cleared. Only reads the
+     * topology, so threads with their own workspace may run it at once.
+     */
+    private void settleMetrics( SpfWorkspace ws, int source, double[] dist, int[] prev )
+    {
+        int n = dist.length;
+        if( ws.metric.length < n )
+            ws.metric = new long[ n ];
+        long[] metric = ws.metric;
+        Arrays.fill( metric, 0, n, Long.MAX_VALUE );
+        RadixHeap heap = ws.radix;
+        heap.reset( metric, n );
+        metric[ source ] = 0;
+        heap.update( source );
+        long settled = 0, relaxed = 0, pushes = 1, decreases = 0, skipped = 0;
+        while( !heap.isEmpty( ) )
+        {
+            int v = heap.poll( );
+            settled++;
+            dist[ v ] = metric[ v ] / (double) LinkStore.METRIC_SCALE;
+
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+            {
+                int w = links.target( e );
+                if( vertexDown.get( w ) || links.isDown( e ) )
+                {
+                    skipped++;
+                    continue;
+                }
+                relaxed++;
+
+                long d = metric[ v ] + links.metric( e );
+                if( d < metric[ w ] )
+                {
+                    metric[ w ] = d;
+                    prev[ w ] = v;
+                    if( heap.contains( w ) )
+                        decreases++;
+                    else
+                        pushes++;
+                    heap.update( w );
+                }
+                else if( d == metric[ w ] && nearer( metric, d, v, prev[ w ] ) )
+                    prev[ w ] = v;
+            }
+        }
+        countWork( settled, relaxed, pushes, decreases, skipped );
+    }
+
+    /**
+     * Add one search's work to the counters. Searches keep their counts in
+     * locals and add them once, so threads running SPFs side by side touch
+     * the shared counters only at the end.
+     */
+    private void countWork( long settled, long relaxed, long pushes, long decreases, long skipped )
+    {
+        work.addAndGet(SETTLED, settled);
+        work.addAndGet(RELAXED, relaxed);
+        work.addAndGet(PUSHES, pushes);
+        work.addAndGet(DECREASES, decreases);
+        work.addAndGet(SKIPPED, skipped);
+    }
+
+    /**
+     * Dijkstra's algorithm as in settle, also keeping in t.dag every
+     * predecessor that ties the best distance to a vertex. dist and prev
+     * come out just as settle leaves them. A tie from a vertex settled
+     * later, over a zero cost link, is left out so the DAG has no cycles.
+     */
+    private void settleAll( IndexedHeap heap, PathTree t )
+    {
+        double[] dist = t.dist;
+        int[] prev = t.prev;
+        PathDag dag = t.dag;
+        long settled = 0, relaxed = 0, pushes = 0, decreases = 0, skipped = 0;
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            settled++;
+
+            for (int e = links.begin(v), end = links.end(v); e < end; e++) {
+                int w = links.target(e);
+                if(vertexDown.get(w) || links.isDown(e)) {
+                    skipped++;
+                    continue;
+                }
+                relaxed++;
+
+                double d = dist[v] + links.weight(e);
+                if (d < dist[w] - PathDag.EPSILON)
+                    dag.drop(w);
+                if (d <= dist[w] + PathDag.EPSILON && (dist[w] == INFINITY || heap.contains(w)))
+                    dag.add(w, v);
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    prev[w] = v;
+                    if (heap.contains(w))
+                        decreases++;
+                    else
+                        pushes++;
+                    heap.update(w);
+                }
+                else if (d == dist[w] && nearer(dist, d, v, prev[w]))
+                    prev[w] = v;
+            }
+        }
+        countWork(settled, relaxed, pushes, decreases, skipped);
+    }
+
+    /**
+     * Compute the forwarding table of every router, running one SPF per
+     * source on a fork-join pool of the given parallelism. Each worker
+     * thread fills its own SpfWorkspace and writes only its sources' rows.
+     */
+    public RoutingTable routingTable( int parallelism )
+    {
+        int n = symbols.size( );
+        String[] names = new String[ n ];
+        for( int v = 0; v < n; v++ )
+            names[ v ] = symbols.name( v );
+        RoutingTable table = new RoutingTable( names );
+        table.integerMetrics = integerMetrics;
+        ThreadLocal<SpfWorkspace> workspaces = ThreadLocal.withInitial( SpfWorkspace::new );
+
+        ForkJoinPool pool = new ForkJoinPool( parallelism );
+        try
+          { pool.invoke( new RowTask( table, workspaces, 0, n ) ); }
+        finally
+          { pool.shutdown( ); }
+        return table;
+    }
+
+    // Fork-join task filling the routing table rows of sources lo..hi-1
+    private class RowTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final RoutingTable table;
+        private final ThreadLocal<SpfWorkspace> workspaces;
+        private final int lo, hi;
+
+        RowTask( RoutingTable table, ThreadLocal<SpfWorkspace> workspaces, int lo, int hi )
+          { this.table = table; this.workspaces = workspaces; this.lo = lo; this.hi = hi; }
+
+        @Override
+        protected void compute( )
+        {
+            if( hi - lo > 1 )
+            {
+                int mid = ( lo + hi ) >>> 1;
+                invokeAll( new RowTask( table, workspaces, lo, mid ),
+                           new RowTask( table, workspaces, mid, hi ) );
+            }
+            else if( lo < hi )
+                fillRow( table, lo, workspaces.get( ) );
+        }
+    }
+
+    /**
+     * Run SPF from source in ws and turn the tree into the source's row.
+     */
+    private void fillRow( RoutingTable table, int source, SpfWorkspace ws )
+    {
+        int n = table.names.length;
+        if( vertexDown.get( source ) )
+        {
+            table.down[ source ] = true;
+            return;
+        }
+        work.incrementAndGet( SPF_RUNS );
+        PathTree t = ws.tree;
+        t.source = source;
+        t.clear( n );
+        if( integerMetrics )
+            settleMetrics( ws, source, t.dist, t.prev );
+        else
+        {
+            ws.heap.reset( t.dist, n );
+            t.dist[ source ] = 0;
+            ws.heap.update( source );
+            settle( ws.heap, t.dist, t.prev );
+        }
+
+        table.nextHop[ source ] = RoutingTable.nextHops( t, ws );
+        table.cost[ source ] = t.dist.clone( );
+    }
+
+    /**
+     * Bring every up to date tree in line with a change to link v -> w,
+     * whose usable cost went from before to after.
+     */
+    private void linkChanged( int v, int w, double before, double after )
+    {
+        republish( v );
+        areas.linkChanged( links, inLinks, v, w );
+        if( after < before )
+            landmarksStale = true;
+        if( hierarchy != null && !hierarchy.hasArc( v, w ) )
+            hierarchy = null;
+        hierarchyStale = true;
+        rerouteChanged( after == INFINITY );
+        if (throttle != null)
+            throttle.changed(epoch);
+        long previous = epoch++;
+        if (!incremental || throttle != null || integerMetrics)
+            return;
+        for (PathTree t : trees.values()) {
+            if (t.epoch != previous || t.dag != null)
+                continue;       // Trees with a DAG are recomputed on next use
+            work.incrementAndGet(REPAIRS);
+            if (after > before) {
+                // Only the subtree hanging off this link can get longer
+                if (t.prev[w] == v)
+                    rebuild(t, w);
+            }
+            else if (t.dist[v] != INFINITY && t.dist[v] + after < t.dist[w]) {
+                // The link now offers a shortcut into w; spread it from there
+                heap.reset(t.dist, t.dist.length);
+                t.dist[w] = t.dist[v] + after;
+                t.prev[w] = v;
+                heap.update(w);
+                settle(heap, t.dist, t.prev);
+            }
+            else if (t.dist[v] != INFINITY && after != INFINITY && t.dist[v] + after == t.dist[w]
+                     && nearer(t.dist, t.dist[w], v, t.prev[w])) {
+                // The link now ties w's path and wins the tie; nothing else moves
+                t.prev[w] = v;
+            }
+            t.epoch = epoch;
+        }
+    }
+
+    /**
+     * Bring every up to date tree in line with vertex x going down or up.
+     * A tree rooted at x is left stale; ospf never reads it while x is down.
+     */
+    private void vertexChanged( int x, boolean down )
+    {
+        republish( x );
+        areas.vertexChanged( x );
+        if( !down )
+            landmarksStale = true;
+        hierarchyStale = true;
+        rerouteChanged( down );
+        if (throttle != null)
+            throttle.changed(epoch);
+        long previous = epoch++;
+        if (!incremental || throttle != null || integerMetrics)
+            return;
+        for (PathTree t : trees.values()) {
+            if (t.epoch != previous || t.source == x || t.dag != null)
+                continue;
+            work.incrementAndGet(REPAIRS);
+            if (down) {
+                if (t.dist[x] != INFINITY)
+                    rebuild(t, x);
+            }
+            else {
+                // x was unreachable while down; enter it from its best up neighbor
+                heap.reset(t.dist, t.dist.length);
+                enter(t, x);
+                if (t.dist[x] != INFINITY)
+                    heap.update(x);
+                settle(heap, t.dist, t.prev);
+            }
+            t.epoch = epoch;
+        }
+    }
+
+    /**
+     * Recompute the part of t below root after a link or vertex on the way
+     * to root got worse. Every vertex in the subtree is cut loose, re-entered
+     * from its best in-link outside the subtree, and Dijkstra runs over just
+     * those vertices. Vertices outside the subtree cannot change.
+     */
+    private void rebuild( PathTree t, int root )
+    {
+        // Collect the subtree: children of a are the heads a is prev of
+        int[] affected = scratch(symbols.size( ));
+        int count = 0;
+        affected[count++] = root;
+        for (int i = 0; i < count; i++) {
+            int a = affected[i];
+            for (int e = links.begin(a), end = links.end(a); e < end; e++)
+                if (t.prev[links.target(e)] == a)
+                    affected[count++] = links.target(e);
+        }
+        for (int i = 0; i < count; i++) {
+            t.dist[affected[i]] = INFINITY;
+            t.prev[affected[i]] = -1;
+        }
+
+        heap.reset(t.dist, t.dist.length);
+        for (int i = 0; i < count; i++) {
+            int a = affected[i];
+            enter(t, a);
+            if (t.dist[a] != INFINITY)
+                heap.update(a);
+        }
+        settle(heap, t.dist, t.prev);
+    }
+
+    /**
+     * Give vertex a the best distance t offers through a's usable in-links,
+     * and the predecessor the tie rule picks among those giving it.
+     */
+    private void enter( PathTree t, int a )
+    {
+        if (vertexDown.get(a))
+            return;
+        for (int e = inLinks.begin(a), end = inLinks.end(a); e < end; e++) {
+            int u = inLinks.target(e);
+            if (inLinks.isDown(e) || t.dist[u] == INFINITY)
+                continue;
+            double d = t.dist[u] + inLinks.weight(e);
+            if (d < t.dist[a]) {
+                t.dist[a] = d;
+                t.prev[a] = u;
+            }
+            else if (d == t.dist[a] && nearer(t.dist, d, u, t.prev[a]))
+                t.prev[a] = u;
+        }
+    }
+
+    private int[] scratch( int n )
+    {
+        if (scratch.length < n)
+            scratch = new int[Math.max(n, scratch.length * 2)];
+        return scratch;
+    }
+
+    /**
+     * Dijkstra's algorithm on java.util.PriorityQueue, which can only
+     * decrease a key by an O(n) remove followed by a re-offer.
+     * Kept to compare against the indexed heap.
+     */
+    private void priorityQueueSpf( int start, double[] dist, int[] prev )
+    {
+        PriorityQueue<Integer> pq = new PriorityQueue<Integer>((a, b) -> Double.compare(dist[a], dist[b]));
+        dist[start] = 0;
+        pq.offer(start);
+        long settled = 0, relaxed = 0, pushes = 1, decreases = 0, skipped = 0;
+
+        while (!pq.isEmpty()) {
+            int v = pq.poll();
+            settled++;
+
+            // Visit all neighbors of the current vertex
+            for (int e = links.begin(v); e < links.end(v); e++) {
+                int w = links.target(e);
+                if(vertexDown.get(w) || links.isDown(e)) {
+                    skipped++;
+                    continue;
+                }
+                relaxed++;
+
+                // If we found a shorter path to the neighbor, update its distance
+                double d = dist[v] + links.weight(e);
+                if (d < dist[w]) {
+                    if (pq.remove(w))
+                        decreases++;
+                    else
+                        pushes++;
+                    dist[w] = d;
+                    prev[w] = v;
+                    pq.offer(w);
+                }
+                else if (d == dist[w] && nearer(dist, d, v, prev[w]))
+                    prev[w] = v;
+            }
+        }
+        countWork(settled, relaxed, pushes, decreases, skipped);
+    }
+
+    /**
+     * Choose the queue behind ospf( ): PRIORITY_QUEUE for java.util.PriorityQueue,
+     * or the arity (2 or more) of an indexed d-ary heap.
+     */
+    public void setHeapArity( int d )
+    {
+        if( d != PRIORITY_QUEUE )
+            heap = new IndexedHeap( d );
+        heapArity = d;
+    }
+
+    /**
+     * Repair cached trees in place on every topology change (the default),
+     * or just let them go stale and recompute them on their next use.
+     */
+    public void setIncremental( boolean on )
+    {
+        incremental = on;
+    }
+
+    /**
+     * Randomized differential check of the incremental repair. Builds a
+     * random graph, keeps trees from a few sources, applies random changes,
+     * and after each one compares every repaired tree against a full
+     * recompute. Distances and predecessors must match exactly, and every
+     * prev link must be a usable link on a shortest path; a tree from
+     * delta-stepping must match too. Then does the same on a grid of unit
+     * links, where most paths tie. Returns the number of bad trees.
+     */
+    public static int checkIncremental( long seed, int routers, int changes )
+    {
+        Random r = new Random( seed );
+        Graph g = new Graph( );
+        for( int i = 0; i < routers * 2; i++ )
+            g.addUndirectedEdge( "R" + r.nextInt( routers ), "R" + r.nextInt( routers ),
+                                 ( 1 + r.nextInt( 300 ) ) / 100.0 );
+        int failures = checkIncremental( g, r, changes, false );
+
+        Graph grid = new Graph( );
+        int side = (int) Math.sqrt( routers );
+        for( int i = 0; i < side; i++ )
+            for( int j = 0; j < side; j++ )
+            {
+                if( j + 1 < side )
+                    grid.addUndirectedEdge( "R" + ( i * side + j ), "R" + ( i * side + j + 1 ), 1 );
+                if( i + 1 < side )
+                    grid.addUndirectedEdge( "R" + ( i * side + j ), "R" + ( ( i + 1 ) * side + j ), 1 );
+            }
+        return failures + checkIncremental( grid, r, changes, true );
+    }
+
+    /**
+     * Apply random changes to g, new links costing 1 if unit, and compare
+     * the repaired trees from a few sources after each one.
+     */
+    private static int checkIncremental( Graph g, Random r, int changes, boolean unit )
+    {
+        int[] sources = new int[ 4 ];
+        for( int i = 0; i < sources.length; i++ )
+            sources[ i ] = r.nextInt( g.symbols.size( ) );
+
+        DeltaStepping parallel = new DeltaStepping( 2 );
+        long[] counts = new long[ 4 ];
+        int compared = 0;
+        int failures = 0;
+        for( int step = 0; step < changes; step++ )
+        {
+            int n = g.symbols.size( );
+            String a = g.symbols.name( r.nextInt( n ) );
+            String b = g.symbols.name( r.nextInt( n ) );
+            int v = g.symbols.find( a );
+            int e = g.links.degree( v ) == 0 ? -1
+                  : g.links.begin( v ) + r.nextInt( g.links.degree( v ) );
+            String head = e < 0 ? b : g.symbols.name( g.links.target( e ) );
+            double cost = unit ? 1 : ( 1 + r.nextInt( 300 ) ) / 100.0;
+            switch( r.nextInt( 8 ) )
+            {
+              case 0: g.addEdge( a, b, cost ); break;
+              case 1: g.addEdge( a, head, cost ); break;
+              case 2: g.deleteEdge( a, head ); break;
+              case 3: g.edgedown( a, head ); break;
+              case 4: g.edgeup( a, head ); break;
+              case 5: g.vertexdown( v ); break;
+              case 6: g.vertexup( v ); break;
+              default: g.addEdge( a, "R" + n, cost ); break;
+            }
+
+            for( int source : sources )
+            {
+                if( g.vertexDown.get( source ) )
+                    continue;
+                PathTree repaired = g.tree( source );
+                PathTree full = new PathTree( source );
+                g.spf( full );
+                compared++;
+                if( !Arrays.equals( repaired.dist, full.dist ) || !Arrays.equals( repaired.prev, full.prev )
+                        || !g.isShortestPathTree( repaired ) )
+                {
+                    failures++;
+                    System.out.println( "Tree from " + g.symbols.name( source )
+                                        + " differs from a full recompute after change " + step );
+                }
+
+                // Delta-stepping must give the very same tree, light links only or mixed
+                PathTree stepped = new PathTree( source );
+                stepped.clear( full.dist.length );
+                parallel.run( g.links, g.inLinks, g.vertexDown, full.dist.length, source, step % 2 == 0 ? 0 : 0.5,
+                              stepped.dist, stepped.prev, counts );
+                if( !Arrays.equals( stepped.dist, full.dist ) || !Arrays.equals( stepped.prev, full.prev ) )
+                {
+                    failures++;
+                    System.out.println( "Delta-stepping tree from " + g.symbols.name( source )
+                                        + " differs from Dijkstra's after change " + step );
+                }
+            }
+        }
+        parallel.shutdown( );
+        System.out.println( "Incremental SPF check" + ( unit ? " (unit grid): " : ": " ) + changes + " changes, " + compared
+                            + " trees compared, " + failures + " mismatches, "
+                            + g.cacheMisses + " trees built from scratch" );
+        return failures;
+    }
+
+    /**
+     * Check that every prev link in t is usable and lies on a shortest path.
+     */
+    private boolean isShortestPathTree( PathTree t )
+    {
+        for( int w = 0; w < t.prev.length; w++ )
+        {
+            int v = t.prev[ w ];
+            if( v < 0 )
+            {
+                if( w != t.source && t.dist[ w ] != INFINITY )
+                    return false;
+                continue;
+            }
+            int e = links.find( v, w );
+            if( e < 0 || usableCost( e ) == INFINITY || t.dist[ v ] + links.weight( e ) != t.dist[ w ] )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Send the answers to requests to out instead of the console.
+     */
+    public void setOutput( PrintStream out )
+    {
+        this.out = out;
+    }
+
+    /**
+     * Keep at most capacity shortest path trees for reuse by later
+     * path requests; 0 turns the cache off.
+     */
+    public void setCacheCapacity( int capacity )
+    {
+        cacheCapacity = Math.max( 0, capacity );
+        trees.clear( );
+        searched.clear( );
+    }
+
+    /**
+     * Print how often path requests were answered from the tree cache.
+     */
+    public void printCacheStats( )
+    {
+        out.println( "SPF cache: " + cacheHits + " hits, " + cacheMisses + " misses, "
+                            + trees.size( ) + " of " + cacheCapacity + " trees held" );
+    }
+
+    /**
+     * Throttle SPF runs after changes with OSPF's delay, hold and max-wait
+     * timers, in ms of the request clock; null turns throttling off, so
+     * every change is seen by the next query. Cached trees are not repaired
+     * in place while throttled: they stay as of the last run.
+     */
+    public void setThrottle( SpfThrottle t )
+    {
+        if( t != null )
+            t.runEpoch = epoch;
+        throttle = t;
+        modesChanged( );
+        if( t == null && fastReroute )
+            converged( versions.get( ) );
+    }
+
+    /**
+     * Move the request clock ms forward, making any SPF run that falls due.
+     */
+    public void await( long ms )
+    {
+        if( throttle != null )
+        {
+            throttle.now += Math.max( 0, ms );
+            throttle.query( epoch );
+        }
+    }
+
+    /**
+     * Print the throttle's timers and what it has done so far.
+     */
+    public void printThrottle( )
+    {
+        SpfThrottle t = throttle;
+        if( t == null )
+        {
+            out.println( "SPF throttle is off" );
+            return;
+        }
+        out.printf( "SPF throttle: delay %d, hold %d (now %d), max wait %d ms, clock at %d ms%n",
+                    t.delay, t.hold, t.currentHold, t.maxWait, t.now );
+        out.println( t.changes + " changes, " + t.runs + " runs (" + t.forced + " forced), "
+                     + t.avoided + " runs avoided, " + t.pending( ) + " changes pending, "
+                     + t.staleAnswers + " stale answers" );
+    }
+
+    /**
+     * Print topology size, SPF work, cache and throttle counters, and the
+     * latency of every kind of request run so far, in microseconds.
+     */
+    public void printStats( )
+    {
+        out.println( "Topology: " + symbols.size( ) + " vertices (" + vertexDown.cardinality( ) + " down), "
+                     + links.links( ) + " links (" + downLinks( ) + " down), epoch " + epoch );
+        double[] bytes = footprint( );
+        out.printf( "Memory: %.1f bytes per vertex for names and rows, %.1f bytes per link %s%n",
+                    bytes[ 0 ], bytes[ 1 ], offHeap ? "off the heap" : "on the heap" );
+        out.println( "SPF: " + work.get( SPF_RUNS ) + " runs, " + work.get( REPAIRS ) + " trees repaired, "
+                     + work.get( SETTLED ) + " vertices settled, " + work.get( RELAXED ) + " links relaxed, "
+                     + work.get( SKIPPED ) + " skipped as down" );
+        out.println( "Heap: " + work.get( PUSHES ) + " pushes, " + work.get( DECREASES ) + " decrease-keys" );
+        printCacheStats( );
+        printThrottle( );
+        out.printf( "%-14s%10s%10s%10s%10s%10s%n", "Request", "count", "p50", "p99", "p99.9", "max" );
+        for( int op = 0; op < latency.length; op++ )
+        {
+            LatencyHistogram h = latency[ op ];
+            if( h.count( ) > 0 )
+                out.printf( "%-14s%10d%10.1f%10.1f%10.1f%10.1f%n", Command.name( op ), h.count( ),
+                            h.percentile( 0.5 ) / 1e3, h.percentile( 0.99 ) / 1e3,
+                            h.percentile( 0.999 ) / 1e3, h.max( ) / 1e3 );
+        }
+    }
+
+    private int downLinks( )
+    {
+        int down = 0;
+        for( int v = 0; v < symbols.size( ); v++ )
+            for( int e = links.begin( v ), end = links.end( v ); e < end; e++ )
+                if( links.isDown( e ) )
+                    down++;
+        return down;
+    }
+
+    /**
+     * The counters of printStats, for JMX consoles. Register a Stats for a
+     * graph with the platform MBean server to watch it while it runs.
+     */
+    public interface StatsMBean
+    {
+        int getVertices( );
+        int getDownVertices( );
+        int getLinks( );
+        int getDownLinks( );
+        double getBytesPerVertex( );
+        double getBytesPerLink( );
+        int getCachedTrees( );
+        long getEpoch( );
+        long getSpfRuns( );
+        long getSpfRunsAvoided( );
+        long getTreesRepaired( );
+        long getVerticesSettled( );
+        long getLinksRelaxed( );
+        long getHeapPushes( );
+        long getHeapDecreases( );
+        long getCacheHits( );
+        long getCacheMisses( );
+        String[] getRequestLatencies( );
+    }
+
+    /**
+     * StatsMBean over one graph, reading it between requests.
+     */
+    public static class Stats implements StatsMBean
+    {
+        private final Graph g;
+
+        public Stats( Graph g )
+          { this.g = g; }
+
+        public int getVertices( )
+          { synchronized( g ) { return g.symbols.size( ); } }
+
+        public int getDownVertices( )
+          { synchronized( g ) { return g.vertexDown.cardinality( ); } }
+
+        public int getLinks( )
+          { synchronized( g ) { return g.links.links( ); } }
+
+        public int getDownLinks( )
+          { synchronized( g ) { return g.downLinks( ); } }
+
+        public double getBytesPerVertex( )
+          { synchronized( g ) { return g.footprint( )[ 0 ]; } }
+
+        public double getBytesPerLink( )
+          { synchronized( g ) { return g.footprint( )[ 1 ]; } }
+
+        public int getCachedTrees( )
+          { synchronized( g ) { return g.trees.size( ); } }
+
+        public long getEpoch( )
+          { synchronized( g ) { return g.epoch; } }
+
+        public long getSpfRuns( )
+          { return g.work.get( SPF_RUNS ); }
+
+        public long getSpfRunsAvoided( )
+          { synchronized( g ) { return g.throttle == null ? 0 : g.throttle.avoided; } }
+
+        public long getTreesRepaired( )
+          { return g.work.get( REPAIRS ); }
+
+        public long getVerticesSettled( )
+          { return g.work.get( SETTLED ); }
+
+        public long getLinksRelaxed( )
+          { return g.work.get( RELAXED ); }
+
+        public long getHeapPushes( )
+          { return g.work.get( PUSHES ); }
+
+        public long getHeapDecreases( )
+          { return g.work.get( DECREASES ); }
+
+        public long getCacheHits( )
+          { synchronized( g ) { return g.cacheHits; } }
+
+        public long getCacheMisses( )
+          { synchronized( g ) { return g.cacheMisses; } }
+
+        /**
+         * One line per kind of request run: name, count, and p50, p99,
+         * p99.9 and max latency in microseconds.
+         */
+        public String[] getRequestLatencies( )
+        {
+            synchronized( g )
+            {
+                List<String> lines = new ArrayList<String>( );
+                for( int op = 0; op < g.latency.length; op++ )
+                {
+                    LatencyHistogram h = g.latency[ op ];
+                    if( h.count( ) > 0 )
+                        lines.add( String.format( "%s %d %.1f %.1f %.1f %.1f", Command.name( op ), h.count( ),
+                                                  h.percentile( 0.5 ) / 1e3, h.percentile( 0.99 ) / 1e3,
+                                                  h.percentile( 0.999 ) / 1e3, h.max( ) / 1e3 ) );
+                }
+                return lines.toArray( new String[ 0 ] );
+            }
+        }
+    }
+
+
+
+    /**
+     * Process a request; return false if end of file.
+     */
+    public static boolean processRequest( Scanner in, Graph g )
+    {
+        if( !in.hasNextLine( ) )
+            return false;
+        boolean more = g.execute( Command.parse( in.nextLine( ) ) );
+        g.out.flush( );
+        return more;
+    }
+
+    /**
+     * Run a whole list of requests, stopping at quit or an unknown request.
+     * Consecutive path requests from the same start share one ospf run,
+     * unless SPF runs are throttled.
+     */
+    public void runBatch( List<Command> commands )
+    {
+        for( int i = 0; i < commands.size( ); i++ )
+        {
+            Command c = commands.get( i );
+            boolean more = execute( c, i > 0 && samePathStart( commands.get( i - 1 ), c ) );
+            if( !more )
+                break;
+        }
+        out.flush( );
+    }
+
+    /**
+     * Throttle from delay, hold and maxwait, then optionally maxstale and
+     * maxpending, all in ms but the last.
+     */
+    private static SpfThrottle parseThrottle( String[] timers )
+    {
+        SpfThrottle t = new SpfThrottle( Long.parseLong( timers[ 0 ] ), Long.parseLong( timers[ 1 ] ),
+                                         Long.parseLong( timers[ 2 ] ) );
+        if( timers.length > 3 )
+            t.maxStale = Long.parseLong( timers[ 3 ] );
+        if( timers.length > 4 )
+            t.maxPending = Integer.parseInt( timers[ 4 ] );
+        return t;
+    }
+
+    /**
+     * Pick ospf's algorithm from dijkstra, or delta then optionally the
+     * threads (default every core) and bucket width.
+     */
+    private void parseSpf( String[] words )
+    {
+        if( words[ 0 ].equals( "dijkstra" ) )
+            setDeltaStepping( 0, 0 );
+        else if( words[ 0 ].equals( "delta" ) )
+            setDeltaStepping( words.length > 1 ? Integer.parseInt( words[ 1 ] ) : Runtime.getRuntime( ).availableProcessors( ),
+                              words.length > 2 ? Double.parseDouble( words[ 2 ] ) : 0 );
+        else
+            throw new NumberFormatException( "Unknown SPF algorithm " + words[ 0 ] );
+    }
+
+    private static boolean samePathStart( Command a, Command b )
+    {
+        return a.op == Command.PATH && a.first != null && a.first.equals( b.first );
+    }
+
+    /**
+     * Carry out one request; return false if it is quit or not a request.
+     */
+    public boolean execute( Command c )
+    {
+        return execute( c, false );
+    }
+
+    /**
+     * Carry out one request, timing it for stats; a path request may reuse
+     * the tree printed last if reusePath. Each request first moves the
+     * throttle's clock on by a tick.
+     */
+    private synchronized boolean execute( Command c, boolean reusePath )
+    {
+        if( throttle != null )
+            throttle.now += throttle.tick;
+        long began = System.nanoTime( );
+        try
+          { return c.op == Command.PATH ? path( c, reusePath ) : dispatch( c ); }
+        finally
+          { latency[ c.op ].record( System.nanoTime( ) - began ); }
+    }
+
+    private boolean dispatch( Command c )
+    {
+        switch( c.op )
+        {
+          //area request: put a router in an area, or list the areas
+          case Command.AREA:
+            if(c.first != null){
+                try{
+                    setArea(c.first, Integer.parseInt(c.second.trim()));
+                    out.println(c.first + " is in area " + c.second.trim());
+                    return true;
+                }
+                catch( IllegalArgumentException e ){
+                    out.println("Use area, or area router n with n at least 0");
+                    return true;
+                }
+                catch( NoSuchElementException e ){
+                    out.println("One of the vertices given is invalid");
+                    return true;
+                }
+            }
+            printAreas();
+            return true;
+
+          //spf request: run ospf by Dijkstra's algorithm or delta-stepping, then report it
+          case Command.SPF:
+            if(c.first != null){
+                try{
+                    parseSpf(c.first.trim().split("[\\s,]+"));
+                }
+                catch( NumberFormatException e ){
+                    out.println("Use spf, spf dijkstra or spf delta [threads [delta]]");
+                    return true;
+                }
+            }
+            printSpf();
+            return true;
+
+          //stats request
+          case Command.STATS:
+            printStats();
+            return true;
+
+          //wait request: move the request clock on
+          case Command.WAIT:
+            try{
+                await(Long.parseLong(c.first));
+            }
+            catch( NumberFormatException | NullPointerException e )
+            { out.println("Use wait ms"); }
+            return true;
+
+          //throttle request: throttle SPF runs, or not, then report it
+          case Command.THROTTLE:
+            if(c.first != null){
+                try{
+                    setThrottle(c.first.equals("off") ? null : parseThrottle(c.first.trim().split("[\\s,]+")));
+                }
+                catch( NumberFormatException | ArrayIndexOutOfBoundsException e ){
+                    out.println("Use throttle, throttle off or throttle delay hold maxwait [maxstale [maxpending]]");
+                    return true;
+                }
+            }
+            printThrottle();
+            return true;
+
+          //equal-cost paths request
+          case Command.PATHS:
+            try
+            {
+                if( c.first == null )
+                    throw new NoSuchElementException( );
+                paths(c.first, c.second);
+            }
+            catch( NoSuchElementException e )
+            { out.println("One of the vertices given is invalid"); }
+            return true;
+
+          //cache statistics request
+          case Command.CACHE:
+            printCacheStats();
+            return true;
+
+          //point reachability request
+          case Command.CANREACH:
+            try
+            {
+                if( c.first == null )
+                    throw new NoSuchElementException( );
+                out.println(c.first + (canReach(c.first, c.second) ? " can reach " : " cannot reach ") + c.second);
+            }
+            catch( NoSuchElementException e )
+            { out.println("One of the vertices given is invalid"); }
+            return true;
+
+          //routing table request: text to the console, or binary to a file
+          case Command.ROUTINGTABLE:
+          {
+            RoutingTable table = routingTable(Runtime.getRuntime().availableProcessors());
+            if(c.first == null){
+                table.print(out, alphabetical());
+                return true;
+            }
+            try(DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(c.first)))){
+                table.write(file);
+                out.println("Routing table for " + table.names.length + " vertices written to " + c.first);
+            }
+            catch( IOException e )
+            { System.err.println( e ); }
+            return true;
+          }
+
+          //print request
+          case Command.PRINT:
+            print();
+            return true;
+
+          //quit request
+          case Command.QUIT:
+            return false;
+
+          //reachable request
+          case Command.REACHABLE:
+            reachable();
+            return true;
+
+          //edgedown request
+          case Command.EDGEDOWN:
+            if(c.first == null || symbols.find(c.first) < 0 || symbols.find(c.second) < 0){
+                out.println("One or more of the vertices requested do not exist yet and thus their " +
+                "edge cannot be listed as Down");
+                return true;
+            }
+            edgedown(c.first, c.second);
+            return logged(c);
+
+          //edgeup request
+          case Command.EDGEUP:
+            if(c.first == null || symbols.find(c.first) < 0 || symbols.find(c.second) < 0){
+                out.println("One or more of the vertices requested do not exist yet and thus their " +
+                "edge cannot be listed as Up");
+                return true;
+            }
+            edgeup(c.first, c.second);
+            return logged(c);
+
+          //vertexdown request
+          case Command.VERTEXDOWN:
+            if(symbols.find(c.first) < 0){
+                out.println("The vertex requested does not exist yet and thus cannot " +
+                "be labeled as down");
+                return true;
+            }
+            vertexdown(getVertex(c.first));
+            return logged(c);
+
+          //vertexup request
+          case Command.VERTEXUP:
+            if(symbols.find(c.first) < 0){
+                out.println("The vertex requested does not exist yet and thus cannot " +
+                "be labeled as Up");
+                return true;
+            }
+            vertexup(symbols.find(c.first));
+            return logged(c);
+
+          //addedge request
+          case Command.ADDEDGE:
+            if(c.first == null){
+                System.err.println( "Skipping ill-formatted line " + c.line );
+                return true;
+            }
+            addEdge(c.first, c.second, c.weight);
+            return logged(c);
+
+          //deleteedge request
+          case Command.DELETEEDGE:
+            if(c.first == null || symbols.find(c.first) < 0 || symbols.find(c.second) < 0){
+                out.println("One or more of the vertices requested do not exist yet and thus their " +
+                "edge cannot be deleted");
+                return true;
+            }
+            deleteEdge(c.first, c.second);
+            return logged(c);
+
+          //point-to-point route request
+          case Command.ROUTE:
+          {
+            int method = c.third == null ? PointToPoint.BIDIR : Arrays.asList(PointToPoint.METHODS).indexOf(c.third);
+            try
+            {
+                if( c.first == null )
+                    throw new NoSuchElementException( );
+                route(c.first, c.second, method);
+            }
+            catch( NoSuchElementException e )
+            { out.println("One of the vertices given is invalid"); }
+            return true;
+          }
+
+          //contraction hierarchy request: use it for paths, or not, then report it
+          case Command.HIERARCHY:
+            if(c.first != null && !c.first.equals("on") && !c.first.equals("off")){
+                out.println("Use hierarchy, hierarchy on or hierarchy off");
+                return true;
+            }
+            if(c.first != null)
+                setHierarchy(c.first.equals("on"));
+            printHierarchy();
+            return true;
+
+          //fast reroute request: answer paths from backups after failures, or not, then report them
+          case Command.FRR:
+            if(c.first != null && !c.first.equals("on") && !c.first.equals("off")){
+                out.println("Use frr, frr on or frr off");
+                return true;
+            }
+            if(c.first != null && !setFastReroute(c.first.equals("on"))){
+                out.println("Fast reroute needs at most " + FastReroute.LIMIT + " routers, not " + symbols.size());
+                return true;
+            }
+            printFastReroute();
             return true;
+
+          //snapshot requests
+          case Command.SAVE:
+          case Command.LOAD:
+          {
+            String file = c.first != null ? c.first : snapshotFile;
+            if(file == null){
+                out.println("No snapshot file given");
+                return true;
+            }
+            try{
+                if(c.op == Command.SAVE){
+                    save(file);
+                    out.println("Snapshot of " + symbols.size( ) + " vertices written to " + file);
+                }
+                else{
+                    load(file);
+                    if(journal != null)
+                        replayJournal();
+                    out.println("Snapshot of " + symbols.size( ) + " vertices read from " + file);
+                }
+            }
+            catch( IOException e )
+            { System.err.println( e ); }
+            return true;
+          }
         }
         return false;
-        
+    }
+
+    /**
+     * Carry out one request from any thread, printing the answer to the
+     * given stream; return false if it is quit or not a request. Path
+     * requests are answered from the latest published version without
+     * waiting, unless areas, the hierarchy, fast reroute or the throttle
+     * is on; all others take turns on the live graph.
+     */
+    public boolean serve( Command c, PrintStream to )
+    {
+        Topology t = versions.get( );
+        if( c.op == Command.PATH && t != null && !livePaths )
+        {
+            path( t, c, to );
+            return true;
+        }
+        synchronized( this )
+        {
+            PrintStream saved = out;
+            out = to;
+            try
+              { return execute( c ); }
+            finally
+              { out = saved; }
+        }
+    }
+
+    /**
+     * Note whether path requests now need the live graph: areas, the
+     * hierarchy, fast reroute and the throttle all answer them in ways a
+     * published version alone cannot.
+     */
+    private void modesChanged( )
+    {
+        livePaths = areas.active( ) || useHierarchy || fastReroute || throttle != null;
+    }
+
+    /**
+     * Answer a path request from a published version, printing just what
+     * path( ) prints for the live graph, when no mode needs the live graph.
+     */
+    private void path( Topology t, Command c, PrintStream out )
+    {
+        int v = c.first == null ? -1 : t.id( c.first );
+        int w = c.first == null ? -1 : t.id( c.second );
+        if( v < 0 )
+        {
+            out.println( "One of the vertices given is invalid" );
+            return;
+        }
+        if( t.isDown( v ) )
+            out.println( "Starting location is down" );
+        if( w < 0 )
+        {
+            out.println( "One of the vertices given is invalid" );
+            return;
+        }
+        Topology.Route route = t.route( c.first, c.second );
+        if( route.hops == null )
+        {
+            out.println( c.second + " is unreachable" );
+            return;
+        }
+        StringBuilder line = new StringBuilder( );
+        for( int hop : route.hops )
+            line.append( t.name( hop ) ).append( ' ' );
+        double rounded = shown( route.cost );
+        out.println( line.append( rounded ) );
+    }
+
+    /**
+     * Answer a path request. If reuse is set, the previous request was a
+     * path from the same start with nothing in between, so its ospf result
+     * still stands and only the start checks are repeated.
+     */
+    private boolean path( Command c, boolean reuse )
+    {
+        try
+        {
+            if( c.first == null )
+                throw new NoSuchElementException( "Malformed path request" );
+            if( areas.active( ) )
+            {
+                areaPath( c.first, c.second );
+                return true;
+            }
+            if( useHierarchy )
+            {
+                hierarchyPath( c.first, c.second );
+                return true;
+            }
+            if( fastReroute )
+            {
+                if( reroutePath( c ) )
+                    return true;
+                reuse = false;      // The last request may not have run ospf
+            }
+            if( throttle != null )
+                reuse = false;      // A throttled run may have fallen due since
+            if( !reuse || last == toward )
+                ospf( c.first, c.second );
+            else if( symbols.find( c.first ) < 0 )
+                throw new NoSuchElementException( "Start vertex not found" );
+            else if( vertexDown.get( symbols.find( c.first ) ) )
+                out.println( "Starting location is down" );
+            printPath( c.second );
+        }
+        catch( NoSuchElementException e )
+        { out.println("One of the vertices given is invalid"); }
+        catch( GraphException e )
+        { System.err.println( e ); }
+        return true;
     }
 
     /**
@@ -543,47 +7917,242 @@ public class Graph
      * 3. Repeatedly prompts for request
      * The data file is a sequence of lines of the format
      *    source destination 
+     * Options after the file name:
+     *    --heap pq|d   queue used by ospf: java.util.PriorityQueue or a d-ary heap
+     *    --cache n     number of shortest path trees kept for reuse (0 for none)
+     *    --incremental on|off  repair cached trees on change instead of recomputing
+     *    --batch file  read requests from file instead of prompting
+     *    --out file    write answers to file instead of the console
+     *    --snapshot file  start from this snapshot if it exists, instead of
+     *                     the data file; default file for save and load
+     *    --journal file   log changes here and replay them on restart
+     *    --hierarchy on|off  answer path requests from a contraction hierarchy
+     *    --frr on|off     answer path requests over failed links from backups
+     *                     until a throttled SPF run takes the failure in
+     *    --ecmp on|off    have ospf keep every shortest path, for paths requests
+     *    --spf dijkstra|delta[,threads[,delta]]  run ospf by Dijkstra's
+     *                     algorithm or by parallel delta-stepping
+     *    --metric int|double  round costs to whole hundredths and run ospf
+     *                     on integer distances with a radix heap, or not
+     *    --throttle delay,hold,maxwait[,maxstale[,maxpending]]
+     *                     throttle SPF runs after changes (see SpfThrottle)
+     *    --tick ms        request clock advance per request, for the throttle
+     *    --jmx            register the stats as MBean ospf:type=Graph
+     *    --serve port     take requests over TCP on loopback port instead
+     *                     of the console (see QueryServer)
+     * Or, to check incremental repair against full recomputes:
+     *    java Graph --check-incremental [seed] [changes]
+     * Or, to benchmark on generated topologies (see Benchmark for options):
+     *    java Graph --bench [key=value ...]
+     * Or, to run path queries on several threads during changes:
+     *    java Graph --stress [key=value ...]
+     * Or, to load a running server (see LoadClient for options):
+     *    java Graph --client [key=value ...]
      */
     public static void main(String[] args )
     {
-        Graph g = new Graph( );
-        try
+        if( args.length > 0 && args[ 0 ].equals( "--check-incremental" ) )
+        {
+            long seed = args.length > 1 ? Long.parseLong( args[ 1 ] ) : 1;
+            int changes = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 2000;
+            System.exit( checkIncremental( seed, 200, changes ) == 0 ? 0 : 1 );
+        }
+        if( args.length > 0 && args[ 0 ].equals( "--bench" ) )
+        {
+            try
+              { new Benchmark( Arrays.copyOfRange( args, 1, args.length ) ).run( ); }
+            catch( Exception e )
+            {
+                System.err.println( e );
+                System.exit( 1 );
+            }
+            return;
+        }
+        if( args.length > 0 && args[ 0 ].equals( "--stress" ) )
         {
-            FileReader fin = new FileReader(args[0]);
-            Scanner graphFile = new Scanner( fin );
+            try
+              { System.exit( new StressTest( Arrays.copyOfRange( args, 1, args.length ) ).run( ) == 0 ? 0 : 1 ); }
+            catch( Exception e )
+            {
+                System.err.println( e );
+                System.exit( 1 );
+            }
+        }
 
-            // Read the edges and insert
-            String line;
-            while( graphFile.hasNextLine( ) )
+        if( args.length > 0 && args[ 0 ].equals( "--client" ) )
+        {
+            try
+              { new LoadClient( Arrays.copyOfRange( args, 1, args.length ) ).run( ); }
+            catch( Exception e )
             {
-                line = graphFile.nextLine( );
-                StringTokenizer st = new StringTokenizer( line );
+                System.err.println( e );
+                System.exit( 1 );
+            }
+            return;
+        }
 
+        Graph g = new Graph( );
+        String batchFile = null;
+        int port = -1;
+        String outFile = null;
+        String journalFile = null;
+        boolean frr = false;
+        SpfThrottle throttle = null;
+        long tick = 1;
+        boolean jmx = false;
+        for( int i = 1; i < args.length; i++ )
+        {
+            if( args[ i ].equals( "--heap" ) && i + 1 < args.length )
+            {
+                String kind = args[ ++i ];
                 try
-                {
-                    if( st.countTokens( ) != 3 )
-                    {
-                        System.err.println( "Skipping ill-formatted line " + line );
-                        continue;
-                    }
-                    String source  = st.nextToken( );
-                    String dest    = st.nextToken( );
-                    double weight = Double.parseDouble(st.nextToken( ));
-                    g.addUndirectedEdge( source, dest, weight);
-                }
+                  { g.setHeapArity( kind.equals( "pq" ) ? PRIORITY_QUEUE : Integer.parseInt( kind ) ); }
+                catch( IllegalArgumentException e )
+                  { System.err.println( "Bad heap " + kind + ", keeping " + g.heapArity ); }
+            }
+            else if( args[ i ].equals( "--hierarchy" ) && i + 1 < args.length )
+                g.setHierarchy( args[ ++i ].equals( "on" ) );
+            else if( args[ i ].equals( "--ecmp" ) && i + 1 < args.length )
+                g.setEcmp( args[ ++i ].equals( "on" ) );
+            else if( args[ i ].equals( "--spf" ) && i + 1 < args.length )
+            {
+                try
+                  { g.parseSpf( args[ ++i ].split( "," ) ); }
                 catch( NumberFormatException e )
-                  { System.err.println( "Skipping ill-formatted line " + line ); }
-             }
-             graphFile.close();
+                  { System.err.println( "Bad SPF algorithm " + args[ i ] ); }
+            }
+            else if( args[ i ].equals( "--metric" ) && i + 1 < args.length )
+                g.setIntegerMetrics( args[ ++i ].equals( "int" ) );
+            else if( args[ i ].equals( "--offheap" ) && i + 1 < args.length )
+                g.setOffHeap( args[ ++i ].equals( "on" ) );
+            else if( args[ i ].equals( "--frr" ) && i + 1 < args.length )
+                frr = args[ ++i ].equals( "on" );
+            else if( args[ i ].equals( "--incremental" ) && i + 1 < args.length )
+                g.setIncremental( !args[ ++i ].equals( "off" ) );
+            else if( args[ i ].equals( "--throttle" ) && i + 1 < args.length )
+            {
+                try
+                  { throttle = parseThrottle( args[ ++i ].split( "," ) ); }
+                catch( NumberFormatException | ArrayIndexOutOfBoundsException e )
+                  { System.err.println( "Bad throttle " + args[ i ] ); }
+            }
+            else if( args[ i ].equals( "--tick" ) && i + 1 < args.length )
+            {
+                try
+                  { tick = Long.parseLong( args[ ++i ] ); }
+                catch( NumberFormatException e )
+                  { System.err.println( "Bad tick " + args[ i ] ); }
+            }
+            else if( args[ i ].equals( "--jmx" ) )
+                jmx = true;
+            else if( args[ i ].equals( "--cache" ) && i + 1 < args.length )
+            {
+                try
+                  { g.setCacheCapacity( Integer.parseInt( args[ ++i ] ) ); }
+                catch( NumberFormatException e )
+                  { System.err.println( "Bad cache size " + args[ i ] ); }
+            }
+            else if( args[ i ].equals( "--batch" ) && i + 1 < args.length )
+                batchFile = args[ ++i ];
+            else if( args[ i ].equals( "--out" ) && i + 1 < args.length )
+                outFile = args[ ++i ];
+            else if( args[ i ].equals( "--snapshot" ) && i + 1 < args.length )
+                g.snapshotFile = args[ ++i ];
+            else if( args[ i ].equals( "--journal" ) && i + 1 < args.length )
+                journalFile = args[ ++i ];
+            else if( args[ i ].equals( "--serve" ) && i + 1 < args.length )
+            {
+                try
+                  { port = Integer.parseInt( args[ ++i ] ); }
+                catch( NumberFormatException e )
+                  { System.err.println( "Bad port " + args[ i ] ); }
+            }
+            else
+                System.err.println( "Ignoring unknown option " + args[ i ] );
+        }
+        if( batchFile != null || outFile != null )
+        {
+            // Answers are only flushed when the buffer fills or the run ends
+            try
+            {
+                OutputStream sink = outFile == null ? new FileOutputStream( FileDescriptor.out )
+                                                    : new FileOutputStream( outFile );
+                g.out = new PrintStream( new BufferedOutputStream( sink, 1 << 16 ), false );
+            }
+            catch( IOException e )
+            {
+                System.err.println( e );
+                return;
+            }
+        }
+        try
+        {
+            long start = System.nanoTime( );
+            if( g.snapshotFile != null && new File( g.snapshotFile ).exists( ) )
+            {
+                g.load( g.snapshotFile );
+                System.err.printf( "Loaded snapshot %s in %.3f s%n", g.snapshotFile,
+                                   ( System.nanoTime( ) - start ) / 1e9 );
+            }
+            else
+            {
+                TopologyLoader loader = new TopologyLoader( args[ 0 ] );
+                loader.loadInto( g );
+                double seconds = ( System.nanoTime( ) - start ) / 1e9;
+                System.err.printf( "Loaded %d lines in %.3f s (%.0f lines/s)%n",
+                                   loader.lines( ), seconds, loader.lines( ) / seconds );
+            }
+            if( journalFile != null )
+                g.openJournal( journalFile );
+        }
+        catch( IOException e )
+          { System.err.println( e ); }
+        if( frr && !g.setFastReroute( true ) )
+            System.err.println( "Fast reroute needs at most " + FastReroute.LIMIT + " routers; it stays off" );
+        if( throttle != null )
+        {
+            throttle.tick = tick;
+            g.setThrottle( throttle );
+        }
+        if( jmx )
+        {
+            try
+              { ManagementFactory.getPlatformMBeanServer( ).registerMBean( new Stats( g ), new ObjectName( "ospf:type=Graph" ) ); }
+            catch( JMException e )
+              { System.err.println( e ); }
+        }
+
+         g.out.println( "File read..." );
+         g.out.println( g.symbols.size( ) + " vertices" );
+
+         if( port >= 0 )
+         {
+             try
+               { new QueryServer( g, port ).run( ); }
+             catch( IOException | InterruptedException e )
+               { System.err.println( e ); }
+             return;
          }
-         catch( IOException e )
-           { System.err.println( e ); }
 
-         System.out.println( "File read..." );
-         System.out.println( g.vertexMap.size( ) + " vertices" );
+         if( batchFile != null )
+         {
+             List<Command> commands = new ArrayList<Command>( );
+             try( BufferedReader requests = new BufferedReader( new FileReader( batchFile ), 1 << 16 ) )
+             {
+                 String line;
+                 while( ( line = requests.readLine( ) ) != null )
+                     commands.add( Command.parse( line ) );
+             }
+             catch( IOException e )
+               { System.err.println( e ); }
+             g.runBatch( commands );
+             g.out.close( );
+             return;
+         }
 
          Scanner in = new Scanner( System.in );
          while( processRequest( in, g ) )
              ;
+         g.out.flush( );
     }
 }
@@ -0,0 +1,138 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+// The benchmarks of ospf.jmh, run on Graph the way the built-in --bench
+// harness runs them: routers and links are picked at random, with the
+// seed, from a TopologyGenerator topology, and listings are printed into
+// a byte counter rather than the console.
+public class GraphWorkload implements ospf.jmh.Workload
+{
+    // Counts what is printed to it and keeps none of it
+    private static final class Counter extends OutputStream
+    {
+        long bytes;
+
+        @Override
+        public void write( int b )
+          { bytes++; }
+
+        @Override
+        public void write( byte[ ] b, int off, int len )
+          { bytes += len; }
+    }
+
+    private final Counter printed = new Counter( );
+    private TopologyGenerator topology;
+    private Graph g;                 // Tree cache off, for ospf and the listings
+    private Graph repaired;          // Tree cache on, for churn
+    private boolean[] down;          // Chosen links now down in each
+    private boolean[] repairedDown;
+    private String[] sources;
+    private String[] ends;
+    private File text;
+    private File snapshot;
+    private boolean offHeap;
+
+    public void setUp( String kind, int routers, String heap, boolean offHeap, long seed ) throws Exception
+    {
+        topology = new TopologyGenerator( kind, routers, seed );
+        this.offHeap = offHeap;
+        Random r = new Random( seed );
+        sources = new String[ 64 ];
+        for( int i = 0; i < sources.length; i++ )
+            sources[ i ] = topology.name( r.nextInt( routers ) );
+        ends = new String[ 2 * Math.min( 1024, topology.edges( ) ) ];
+        for( int i = 0; i < ends.length; i += 2 )
+        {
+            int e = r.nextInt( topology.edges( ) );
+            ends[ i ] = topology.name( topology.from( e ) );
+            ends[ i + 1 ] = topology.name( topology.to( e ) );
+        }
+        down = new boolean[ ends.length / 2 ];
+        repairedDown = new boolean[ ends.length / 2 ];
+
+        g = build( heap );
+        g.setCacheCapacity( 0 );
+        repaired = build( heap );
+
+        text = File.createTempFile( "ospf-jmh", ".txt" );
+        topology.write( text.getPath( ) );
+        snapshot = File.createTempFile( "ospf-jmh", ".snap" );
+        g.save( snapshot.getPath( ) );
+    }
+
+    private Graph build( String heap )
+    {
+        Graph built = topology.build( );
+        built.setOutput( new PrintStream( printed ) );
+        built.setOffHeap( offHeap );
+        built.setIntegerMetrics( heap.equals( "radix" ) );
+        if( !heap.equals( "radix" ) )
+            built.setHeapArity( heap.equals( "pq" ) ? Graph.PRIORITY_QUEUE : Integer.parseInt( heap ) );
+        return built;
+    }
+
+    public Object ospf( int i )
+    {
+        g.ospf( sources[ i % sources.length ] );
+        return g;
+    }
+
+    public Object churn( int i, boolean incremental )
+    {
+        repaired.setIncremental( incremental );
+        toggle( repaired, repairedDown, i );
+        repaired.ospf( sources[ 0 ] );
+        return repaired;
+    }
+
+    public long reachable( int i )
+    {
+        toggle( g, down, i );
+        g.reachable( );
+        return printed.bytes;
+    }
+
+    public long print( )
+    {
+        g.print( );
+        return printed.bytes;
+    }
+
+    public Object load( ) throws Exception
+    {
+        Graph loaded = new Graph( );
+        loaded.setOffHeap( offHeap );
+        new TopologyLoader( text.getPath( ) ).loadInto( loaded );
+        return loaded;
+    }
+
+    public Object restore( ) throws Exception
+    {
+        Graph loaded = new Graph( );
+        loaded.setOffHeap( offHeap );
+        loaded.load( snapshot.getPath( ) );
+        return loaded;
+    }
+
+    public void tearDown( )
+    {
+        text.delete( );
+        snapshot.delete( );
+    }
+
+    /**
+     * Flip the up/down state of the i-th chosen link.
+     */
+    private void toggle( Graph graph, boolean[] state, int i )
+    {
+        int k = i % state.length;
+        if( state[ k ] )
+            graph.edgeup( ends[ 2 * k ], ends[ 2 * k + 1 ] );
+        else
+            graph.edgedown( ends[ 2 * k ], ends[ 2 * k + 1 ] );
+        state[ k ] = !state[ k ];
+    }
+}
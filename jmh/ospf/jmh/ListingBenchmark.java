@@ -0,0 +1,61 @@
+package ospf.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The reachable and print listings. Their output grows with the square of
+// the routers for reachable, so sizes stop at 5000, as in --bench.
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class ListingBenchmark
+{
+    @Param( { "grid", "geometric", "scalefree", "isp" } )
+    public String topology;
+
+    @Param( { "100", "1000", "5000" } )
+    public int routers;
+
+    @Param( { "1" } )
+    public long seed;
+
+    private Workload work;
+    private int i;
+
+    @Setup( Level.Trial )
+    public void setUp( ) throws Exception
+    {
+        work = Workload.create( );
+        work.setUp( topology, routers, "4", false, seed );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown( )
+    {
+        work.tearDown( );
+    }
+
+    @Benchmark
+    public long reachable( )
+      { return work.reachable( i++ ); }
+
+    @Benchmark
+    public long print( )
+      { return work.print( ); }
+}
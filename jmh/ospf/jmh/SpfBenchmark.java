@@ -0,0 +1,80 @@
+package ospf.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Shortest path trees, link churn and graph loading on generated
+// topologies of 10^2 to 10^5 routers (10^6 with -p routers=1000000 and
+// enough -Xmx). heap and offheap compare queue and adjacency layouts.
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+public class SpfBenchmark
+{
+    @Param( { "grid", "geometric", "scalefree", "isp" } )
+    public String topology;
+
+    @Param( { "100", "1000", "10000", "100000" } )
+    public int routers;
+
+    @Param( { "4" } )
+    public String heap;
+
+    @Param( { "off" } )
+    public String offheap;
+
+    @Param( { "1" } )
+    public long seed;
+
+    private Workload work;
+    private int i;
+
+    @Setup( Level.Trial )
+    public void setUp( ) throws Exception
+    {
+        work = Workload.create( );
+        work.setUp( topology, routers, heap, offheap.equals( "on" ), seed );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown( )
+    {
+        work.tearDown( );
+    }
+
+    @Benchmark
+    public Object ospf( )
+      { return work.ospf( i++ ); }
+
+    @Benchmark
+    public Object churn( )
+      { return work.churn( i++, true ); }
+
+    @Benchmark
+    public Object churnFull( )
+      { return work.churn( i++, false ); }
+
+    @Benchmark
+    public Object load( ) throws Exception
+      { return work.load( ); }
+
+    @Benchmark
+    public Object restore( ) throws Exception
+      { return work.restore( ); }
+}
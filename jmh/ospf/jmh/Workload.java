@@ -0,0 +1,65 @@
+package ospf.jmh;
+
+/**
+ * What the benchmarks run, on one generated topology. Graph and its
+ * generators are in the default package, which a JMH benchmark may not be
+ * in and a named package cannot refer to, so GraphWorkload implements
+ * this from the default package and the benchmarks load it by name once,
+ * at setup; every timed call is a plain interface call.
+ */
+public interface Workload
+{
+    /**
+     * Generate a topology of the given kind and size with seed, build a
+     * graph of it with the given heap ("pq", an arity, or "radix" for
+     * integer metrics) and its links on or off the heap, and pick random
+     * routers and links for the requests below.
+     */
+    void setUp( String topology, int routers, String heap, boolean offHeap, long seed ) throws Exception;
+
+    /**
+     * Full shortest path tree from the i-th chosen router, tree cache off.
+     * Returns the graph, which holds the tree.
+     */
+    Object ospf( int i );
+
+    /**
+     * Toggle the i-th chosen link down or up, then bring the tree from a
+     * fixed router up to date (repaired, unless incremental is off).
+     */
+    Object churn( int i, boolean incremental );
+
+    /**
+     * Toggle the i-th chosen link, then list what every router reaches.
+     * Returns the bytes printed.
+     */
+    long reachable( int i );
+
+    /**
+     * Print every router and its links. Returns the bytes printed.
+     */
+    long print( );
+
+    /**
+     * Parse the topology's network file into a new graph.
+     */
+    Object load( ) throws Exception;
+
+    /**
+     * Map a snapshot of the topology into a new graph.
+     */
+    Object restore( ) throws Exception;
+
+    /**
+     * Delete the files made by setUp.
+     */
+    void tearDown( );
+
+    /**
+     * A new GraphWorkload.
+     */
+    static Workload create( ) throws ReflectiveOperationException
+    {
+        return (Workload) Class.forName( "GraphWorkload" ).getDeclaredConstructor( ).newInstance( );
+    }
+}